@@ -0,0 +1,121 @@
+import bench.Stages;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class HuffmanStages implements Stages {
+    private byte[] data, payload, interleaved, decoded;
+    private int[] streamOffsets, streamLengths;
+    private String compressedPath;
+    private String[] options;
+    private byte n;
+    private WordFrequencies frequencies;
+    private CodeTable table;
+    private TableEncoder encoder;
+    private TableDecoder decoder;
+    private BitWriter writer;
+    private ByteArrayOutputStream header;
+
+    @Override
+    public void prepare(byte[] data, byte n) throws IOException {
+        this.data = data;
+        this.n = n;
+        frequencies = countFrequencies();
+        table = CodeTable.canonical(frequencies, buildTree(), HuffmanCodeManager.DEFAULT_MAX_CODE_LENGTH);
+        encoder = new TableEncoder(table);
+        decoder = new TableDecoder(table);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2 + 64);
+        BitWriter payloadWriter = new BitWriter(out, TableDecoder.BUFFER_SIZE);
+        encoder.encode(data, 0, data.length, payloadWriter);
+        payloadWriter.finish();
+        payload = out.toByteArray();
+        decoded = new byte[data.length];
+        prepareInterleaved(HuffmanCodeManager.DEFAULT_STREAMS);
+        // Encoded output is thrown away, the writer is reused so its buffer isn't counted on every run
+        writer = new BitWriter(OutputStream.nullOutputStream(), TableDecoder.BUFFER_SIZE);
+        header = new ByteArrayOutputStream();
+    }
+
+    private void prepareInterleaved(int streams) throws IOException {
+        ByteArrayOutputStream[] outs = new ByteArrayOutputStream[streams];
+        BitWriter[] writers = new BitWriter[streams];
+        for (int i=0 ; i<streams ; i++) {
+            outs[i] = new ByteArrayOutputStream(data.length / (2 * streams) + 64);
+            writers[i] = new BitWriter(outs[i], TableDecoder.BUFFER_SIZE);
+        }
+        encoder.encodeInterleaved(data, 0, data.length, writers);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2 + 64);
+        streamOffsets = new int[streams];
+        streamLengths = new int[streams];
+        for (int i=0 ; i<streams ; i++) {
+            writers[i].finish();
+            streamOffsets[i] = out.size();
+            streamLengths[i] = outs[i].size();
+            outs[i].writeTo(out);
+        }
+        interleaved = out.toByteArray();
+    }
+
+    @Override
+    public WordFrequencies countFrequencies() {
+        // The in-memory counting loop of getFrequencies, without the file reads around it
+        FrequencyCounter counter = new FrequencyCounter(n);
+        counter.add(data, 0, data.length);
+        return counter.finish();
+    }
+
+    @Override
+    public int[] buildTree() {
+        return CodeLengths.huffman(frequencies.counts, frequencies.size);
+    }
+
+    @Override
+    public int writeHeader() throws IOException {
+        header.reset();
+        table.writeCanonical(header);
+        return header.size();
+    }
+
+    @Override
+    public long encode() throws IOException {
+        encoder.encode(data, 0, data.length, writer);
+        long bits = writer.bitCount();
+        writer.finish();
+        return bits;
+    }
+
+    @Override
+    public int decode() throws IOException {
+        decoder.decode(payload, 0, payload.length, decoded, 0, data.length);
+        return decoded[data.length - 1];
+    }
+
+    @Override
+    public int decodeInterleaved() {
+        decoder.decodeInterleaved(interleaved, streamOffsets, streamLengths, decoded, 0, data.length);
+        return decoded[data.length - 1];
+    }
+
+    @Override
+    public void prepareFile(byte[] data, byte n, Path dir, String... options) throws IOException {
+        Path input = Files.write(dir.resolve("corpus.bin"), data);
+        this.options = options;
+        compressedPath = manager().compress(input.toAbsolutePath().toString(), n);
+    }
+
+    @Override
+    public long decompressFile() throws IOException {
+        HuffmanCodeManager manager = manager();
+        manager.decompress(compressedPath);
+        return manager.getMetrics().bytesWritten();
+    }
+
+    private HuffmanCodeManager manager() {
+        HuffmanCodeManager manager = new HuffmanCodeManager();
+        for (String option : options) manager.applyOption(option);
+        return manager;
+    }
+}
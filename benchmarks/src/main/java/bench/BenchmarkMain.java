@@ -0,0 +1,35 @@
+package bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Collection;
+
+public class BenchmarkMain {
+    // Takes the usual JMH arguments (e.g. "encoding -p n=1,2 -p kind=TEXT -rf json"), always adds the GC
+    // profiler and ends with a summary of MB/s and bytes allocated per operation
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        ChainedOptionsBuilder options = new OptionsBuilder().parent(commandLine).addProfiler(GCProfiler.class);
+        if (commandLine.getIncludes().isEmpty()) options.include(StageBenchmark.class.getSimpleName());
+        Collection<RunResult> results = new Runner(options.build()).run();
+
+        System.out.printf("%n%-28s %-11s %2s %12s %14s%n", "Stage", "Corpus", "n", "MB/s", "B/op");
+        for (RunResult result : results) {
+            String benchmark = result.getParams().getBenchmark();
+            String stage = benchmark.substring(benchmark.lastIndexOf('.') + 1);
+            String layout = result.getParams().getParam("layout");
+            if (layout != null) stage += "/" + layout;
+            long size = Long.parseLong(result.getParams().getParam("size"));
+            double megabytes = result.getPrimaryResult().getScore() * size / 1048576.0;
+            Result<?> allocated = result.getSecondaryResults().get("gc.alloc.rate.norm");
+            System.out.printf("%-28s %-11s %2s %12.1f %14.0f%n", stage, result.getParams().getParam("kind"),
+                    result.getParams().getParam("n"), megabytes, (allocated != null)? allocated.getScore() : Double.NaN);
+        }
+    }
+}
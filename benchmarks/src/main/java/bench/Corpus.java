@@ -0,0 +1,102 @@
+package bench;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.SplittableRandom;
+
+public final class Corpus {
+    public enum Kind { UNIFORM, ZIPF, TEXT, REPETITIVE }
+
+    public static final long DEFAULT_SEED = 20010545L;
+    private static final String[] SYLLABLES = {
+        "the", "an", "of", "in", "re", "con", "ing", "er", "ed", "al", "com", "pro", "ter", "tion", "ly", "ex",
+        "de", "un", "at", "en", "is", "or", "ment", "ble", "ver", "per", "sta", "man", "di", "to", "it", "so"
+    };
+
+    private Corpus() {
+    }
+
+    // The same kind, size and seed always give the same bytes, so runs on different machines compare
+    public static byte[] generate(Kind kind, int size, long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        byte[] data = new byte[size];
+        switch (kind) {
+            case UNIFORM -> random.nextBytes(data);
+            case ZIPF -> {
+                double[] cumulative = zipf(256, 1.1);
+                for (int i=0 ; i<size ; i++) data[i] = (byte) sample(cumulative, random);
+            }
+            case TEXT -> text(data, random);
+            case REPETITIVE -> {
+                // A short motif repeated over and over, with a rare mutation
+                byte[] motif = new byte[64];
+                random.nextBytes(motif);
+                for (int i=0 ; i<size ; i++)
+                    data[i] = (random.nextInt(1000) == 0)? (byte) random.nextInt(256) : motif[i % motif.length];
+            }
+        }
+        return data;
+    }
+
+    private static void text(byte[] data, SplittableRandom random) {
+        // Words made of common syllables, picked with a Zipf distribution and laid out in sentences and lines
+        String[] vocabulary = new String[2000];
+        for (int i=0 ; i<vocabulary.length ; i++) {
+            StringBuilder word = new StringBuilder();
+            for (int j=random.nextInt(1, 4) ; j>0 ; j--) word.append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+            vocabulary[i] = word.toString();
+        }
+        double[] cumulative = zipf(vocabulary.length, 1.0);
+        int position = 0, sentence = 0, line = 0;
+        while (position < data.length) {
+            String word = vocabulary[sample(cumulative, random)];
+            for (int i=0 ; i<word.length() && position<data.length ; i++) {
+                char c = word.charAt(i);
+                data[position++] = (byte) ((sentence == 0 && i == 0)? Character.toUpperCase(c) : c);
+            }
+            sentence++;
+            line++;
+            String separator = " ";
+            if (random.nextInt(12) == 0) {
+                separator = ". ";
+                sentence = 0;
+            } else if (random.nextInt(8) == 0) {
+                separator = ", ";
+            }
+            if (line >= 12) {
+                separator = separator.trim() + "\n";
+                line = 0;
+            }
+            for (int i=0 ; i<separator.length() && position<data.length ; i++) data[position++] = (byte) separator.charAt(i);
+        }
+    }
+
+    private static double[] zipf(int size, double exponent) {
+        double[] cumulative = new double[size];
+        double sum = 0;
+        for (int i=0 ; i<size ; i++) cumulative[i] = sum += 1 / Math.pow(i + 1, exponent);
+        for (int i=0 ; i<size ; i++) cumulative[i] /= sum;
+        return cumulative;
+    }
+
+    private static int sample(double[] cumulative, SplittableRandom random) {
+        double u = random.nextDouble();
+        int low = 0, high = cumulative.length - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (cumulative[mid] < u) low = mid + 1;
+            else high = mid;
+        }
+        return low;
+    }
+
+    // Writes a corpus file to try the command line tool on: <kind> <size> <path> [seed]
+    public static void main(String[] args) throws IOException {
+        long seed = (args.length > 3)? Long.parseLong(args[3]) : DEFAULT_SEED;
+        byte[] data = generate(Kind.valueOf(args[0].toUpperCase()), Integer.parseInt(args[1]), seed);
+        try (OutputStream out = new FileOutputStream(args[2])) {
+            out.write(data);
+        }
+    }
+}
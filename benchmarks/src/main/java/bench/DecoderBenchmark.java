@@ -0,0 +1,80 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+// Whole-file decompression of the corpus in each layout, from the legacy tree walker to interleaved blocks.
+// Blocks run on one thread so only the decode loop differs.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = {"-Xms2g", "-Xmx2g"})
+public class DecoderBenchmark {
+    public enum Layout {
+        TREE("tree"),
+        TABLE("table"),
+        BLOCKS("blocks", "threads:1"),
+        INTERLEAVED_2("interleaved:2", "threads:1"),
+        INTERLEAVED_4("interleaved:4", "threads:1"),
+        INTERLEAVED_8("interleaved:8", "threads:1");
+
+        final String[] options;
+
+        Layout(String... options) {
+            this.options = options;
+        }
+    }
+
+    @Param({"UNIFORM", "ZIPF", "TEXT", "REPETITIVE"})
+    public Corpus.Kind kind;
+
+    @Param({"1", "2", "4", "8"})
+    public int n;
+
+    @Param
+    public Layout layout;
+
+    @Param({"4194304"})
+    public int size;
+
+    private Stages stages;
+    private Path directory;
+
+    @Setup
+    public void setUp() throws IOException, ReflectiveOperationException {
+        stages = Stages.load();
+        directory = Files.createTempDirectory("decoder-benchmark");
+        stages.prepareFile(Corpus.generate(kind, size, Corpus.DEFAULT_SEED), (byte) n, directory, layout.options);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) Files.delete(file);
+        }
+    }
+
+    @Benchmark
+    public long decompression() throws IOException {
+        return stages.decompressFile();
+    }
+}
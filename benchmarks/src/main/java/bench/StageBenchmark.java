@@ -0,0 +1,72 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+// Every operation handles the whole corpus once, so MB/s is ops/s times the corpus size
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = {"-Xms2g", "-Xmx2g"})
+public class StageBenchmark {
+    @Param({"UNIFORM", "ZIPF", "TEXT", "REPETITIVE"})
+    public Corpus.Kind kind;
+
+    @Param({"1", "2", "3", "4", "5", "6", "7", "8"})
+    public int n;
+
+    @Param({"4194304"})
+    public int size;
+
+    private Stages stages;
+
+    @Setup
+    public void setUp() throws IOException, ReflectiveOperationException {
+        stages = Stages.load();
+        stages.prepare(Corpus.generate(kind, size, Corpus.DEFAULT_SEED), (byte) n);
+    }
+
+    @Benchmark
+    public Object frequencyCounting() {
+        return stages.countFrequencies();
+    }
+
+    @Benchmark
+    public Object treeBuilding() {
+        return stages.buildTree();
+    }
+
+    @Benchmark
+    public int headerWriting() throws IOException {
+        return stages.writeHeader();
+    }
+
+    @Benchmark
+    public long encoding() throws IOException {
+        return stages.encode();
+    }
+
+    @Benchmark
+    public int decoding() throws IOException {
+        return stages.decode();
+    }
+
+    @Benchmark
+    public int interleavedDecoding() {
+        return stages.decodeInterleaved();
+    }
+}
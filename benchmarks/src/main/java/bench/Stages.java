@@ -0,0 +1,34 @@
+package bench;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+// Benchmarks need a named package, which can't see the codec in the unnamed package. The stages are
+// driven through this interface instead, implemented by HuffmanStages next to the codec classes.
+public interface Stages {
+    // Prepares the input of every stage from the corpus, so each benchmark times only its own stage
+    void prepare(byte[] data, byte n) throws IOException;
+
+    Object countFrequencies();
+
+    Object buildTree();
+
+    int writeHeader() throws IOException;
+
+    long encode() throws IOException;
+
+    int decode() throws IOException;
+
+    // Decodes the same words split over HuffmanCodeManager.DEFAULT_STREAMS interleaved streams
+    int decodeInterleaved();
+
+    // Writes the corpus to a file in dir and compresses it with the given options, decompressFile reads it
+    // back with the same options
+    void prepareFile(byte[] data, byte n, Path dir, String... options) throws IOException;
+
+    long decompressFile() throws IOException;
+
+    static Stages load() throws ReflectiveOperationException {
+        return (Stages) Class.forName("HuffmanStages").getDeclaredConstructor().newInstance();
+    }
+}
@@ -0,0 +1,125 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+public class BatchCompressor {
+    public static final long DEFAULT_MEMORY_CAP = 256L << 20; // 256 MB
+
+    // Every file is a job on its own virtual thread with its own HuffmanCodeManager, so no state is shared
+    // between jobs. Jobs use a single thread each (the files are the parallelism), stream I/O and the
+    // accumulator encoder, and take their working buffers from one pool sized by the memory cap.
+    // Block containers reserve the blocks they keep in flight the same way.
+    private final BufferPool pool;
+    private final Consumer<HuffmanCodeManager> configure;
+
+    public static class FileResult {
+        public final Path input;
+        public final String output;
+        public final long inputBytes, outputBytes, nanos;
+        public final Throwable error;
+
+        FileResult(Path input, String output, long inputBytes, long outputBytes, long nanos, Throwable error) {
+            this.input = input;
+            this.output = output;
+            this.inputBytes = inputBytes;
+            this.outputBytes = outputBytes;
+            this.nanos = nanos;
+            this.error = error;
+        }
+    }
+
+    public BatchCompressor(long memoryCap, Consumer<HuffmanCodeManager> configure) {
+        pool = new BufferPool(memoryCap, TableDecoder.BUFFER_SIZE);
+        this.configure = configure;
+    }
+
+    public List<FileResult> compress(Path root, byte n) throws IOException {
+        // Files written by earlier runs are left alone
+        return run(root, path -> !isOutput(path), (manager, path) -> manager.compress(path, n));
+    }
+
+    public List<FileResult> decompress(Path root) throws IOException {
+        return run(root, path -> path.getFileName().toString().endsWith(".hc"), (manager, path) -> {
+            manager.decompress(path);
+            String name = Path.of(path).getFileName().toString();
+            return Path.of(path).resolveSibling("extracted." + name.substring(0, name.length()-3)).toString();
+        });
+    }
+
+    private interface Job {
+        String run(HuffmanCodeManager manager, String path);
+    }
+
+    private List<FileResult> run(Path root, Predicate<Path> include, Job job) throws IOException {
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(root)) {
+            files = walk.filter(Files::isRegularFile).filter(include).sorted().toList();
+        }
+        List<Future<FileResult>> futures = new ArrayList<>(files.size());
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (Path file : files) futures.add(executor.submit(() -> runJob(file, job)));
+        }
+        List<FileResult> results = new ArrayList<>(files.size());
+        for (Future<FileResult> future : futures) results.add(future.resultNow());
+        return results;
+    }
+
+    private FileResult runJob(Path file, Job job) {
+        HuffmanCodeManager manager = new HuffmanCodeManager();
+        if (configure != null) configure.accept(manager);
+        manager.setThreads(1);
+        manager.setIoMode(HuffmanCodeManager.IoMode.STREAM);
+        manager.setEncoderType(HuffmanCodeManager.EncoderType.ACCUMULATOR);
+        manager.setBufferPool(pool);
+        Throwable[] error = new Throwable[1];
+        manager.setListener(new CompressionListener() {
+            @Override
+            public void failed(Throwable e) {
+                error[0] = e;
+            }
+        });
+        long start = System.nanoTime();
+        String output = null;
+        try {
+            output = job.run(manager, file.toString());
+        } catch (RuntimeException e) {
+            error[0] = e;
+        }
+        long nanos = System.nanoTime() - start;
+        File outputFile = new File((output != null)? output : "");
+        return new FileResult(file, output, file.toFile().length(), outputFile.length(), nanos, error[0]);
+    }
+
+    private static boolean isOutput(Path path) {
+        String name = path.getFileName().toString();
+        return name.endsWith(".hc") || name.endsWith(SyncIndex.EXTENSION) || name.endsWith(SharedDictionary.EXTENSION)
+                || name.startsWith("extracted.");
+    }
+
+    public static void printSummary(List<FileResult> results, PrintStream out) {
+        long inputBytes = 0, outputBytes = 0;
+        int failed = 0;
+        for (FileResult result : results) {
+            if (result.error != null) {
+                failed++;
+                out.println("FAILED " + result.input + ": " + result.error);
+                continue;
+            }
+            inputBytes += result.inputBytes;
+            outputBytes += result.outputBytes;
+            out.println(result.input + " -> " + result.output + " (" + result.inputBytes + " -> " + result.outputBytes
+                    + " bytes, " + result.nanos / 1000000 + "ms)");
+        }
+        out.println(results.size() + " files, " + failed + " failed, " + inputBytes + " bytes in, " + outputBytes + " bytes out");
+    }
+}
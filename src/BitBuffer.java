@@ -13,15 +13,14 @@ public class BitBuffer {
 
     public void appendBits(BitVector bitVector) {
         for (int i=0 ; i<bitVector.getLength() ; i++) {
-            try { // An exception could occur where we had reached the end of the buffer bytes
-                if (bitVector.get(i)) {
-                    buffer[byteIndex] |= (byte) (1 << bitIndex);
-                }
-                bitIndex--;
-            } catch (ArrayIndexOutOfBoundsException e) { // The exception is caught and the overflow bits are written
+            if (byteIndex == bufferLength) { // The buffer is full, the rest of the code goes to the overflow bytes
                 putOverflow(bitVector, i);
                 return;
             }
+            if (bitVector.get(i)) {
+                buffer[byteIndex] |= (byte) (1 << bitIndex);
+            }
+            bitIndex--;
 
             if (bitIndex == -1) {
                 byteIndex++;
@@ -0,0 +1,75 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+public class BitWriter {
+    private final OutputStream sink;
+    private final WritableByteChannel channel;
+    // A heap buffer for stream sinks, a direct buffer for channels so writes don't go through a copy
+    private final ByteBuffer buffer;
+    private final int capacity;
+    private int position;
+    private long flushed; // Bytes already handed to the sink
+    // Pending bits are the low bits of the accumulator, at most 7 remain between writes
+    private long accumulator;
+    private int bits;
+
+    public BitWriter(OutputStream sink, int capacity) {
+        this.sink = sink;
+        this.channel = null;
+        this.buffer = ByteBuffer.allocate(capacity);
+        this.capacity = capacity;
+    }
+
+    public BitWriter(OutputStream sink, byte[] buffer) {
+        this.sink = sink;
+        this.channel = null;
+        this.buffer = ByteBuffer.wrap(buffer);
+        this.capacity = buffer.length;
+    }
+
+    public BitWriter(WritableByteChannel channel, int capacity) {
+        this.sink = null;
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocateDirect(capacity);
+        this.capacity = capacity;
+    }
+
+    public void write(long code, int length) throws IOException {
+        // length is at most CodeTable.MAX_CODE_LENGTH, so the code and the pending bits fit in 64 bits
+        accumulator = (accumulator << length) | code;
+        bits += length;
+        while (bits >= 8) {
+            bits -= 8;
+            buffer.put(position++, (byte) (accumulator >>> bits));
+            if (position == capacity) flushBuffer();
+        }
+    }
+
+    // Bits written so far, counted from the first write
+    public long bitCount() {
+        return (flushed + position) * 8 + bits;
+    }
+
+    public void finish() throws IOException {
+        // Pad the last byte with zeros
+        if (bits > 0) {
+            buffer.put(position++, (byte) (accumulator << (8 - bits)));
+            bits = 0;
+        }
+        flushBuffer();
+    }
+
+    private void flushBuffer() throws IOException {
+        if (sink != null) {
+            sink.write(buffer.array(), 0, position);
+        } else {
+            buffer.limit(position).position(0);
+            while (buffer.hasRemaining()) channel.write(buffer);
+            buffer.clear();
+        }
+        flushed += position;
+        position = 0;
+    }
+}
@@ -0,0 +1,238 @@
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+public class BlockCodec {
+    public static final int DEFAULT_BLOCK_SIZE = 16 << 20; // 16 MB
+    public static final int MIN_BLOCK_SIZE = 4096;
+    public static final int MAX_STREAMS = 16;
+    static final byte SHARED_TABLE = 0, BLOCK_TABLES = 1;
+    private static final int INDEX_ENTRY_SIZE = 16;
+
+    // Container layout after the common header (marker, n, original length):
+    // block size (4), table mode (1), the shared canonical table (if shared), block count (4),
+    // then per block its file offset (8), compressed length (4) and original length (4), then the blocks.
+    // With block tables every block starts with its own canonical table, built from that block alone,
+    // so the input is read only once. Blocks only depend on their table, so the output is the same
+    // for any number of threads.
+    // Interleaved containers carry a stream count (1) after the table mode, and every block payload is
+    // split round-robin into that many bitstreams: the lengths of all streams but the last (4 each), then the streams.
+    private final int threads, blockSize, maxCodeLength, streams;
+    // Index of the container being read
+    private int storedBlockSize, blockCount, storedStreams;
+    private long[] offsets;
+    private int[] compressedLengths, lengths;
+    private TableDecoder shared;
+
+    public BlockCodec(int threads, int blockSize, int maxCodeLength) {
+        this(threads, blockSize, maxCodeLength, 1);
+    }
+
+    // More than one stream writes and reads interleaved containers
+    public BlockCodec(int threads, int blockSize, int maxCodeLength, int streams) {
+        this.threads = threads;
+        this.blockSize = blockSize;
+        this.maxCodeLength = maxCodeLength;
+        this.streams = streams;
+    }
+
+    // Blocks in flight, each with its input and about as much room for its output
+    public long bufferBytes(long originalLength) {
+        long inFlight = Math.min(2L * threads, (originalLength + blockSize - 1) / blockSize);
+        return inFlight * Math.min(blockSize, originalLength) * 2;
+    }
+
+    // A null table gives every block its own table
+    public void compress(FileChannel input, byte n, long originalLength, CodeTable table, FileChannel output) throws IOException {
+        int size = Math.max(blockSize / n, 1) * n; // Words never straddle two blocks
+        int blockCount = (int) ((originalLength + size - 1) / size);
+        ByteBuffer header = ByteBuffer.allocate(6);
+        header.putInt(size).put((table != null)? SHARED_TABLE : BLOCK_TABLES);
+        if (streams > 1) header.put((byte) streams);
+        writeFully(output, header.flip());
+        if (table != null) table.writeCanonical(Channels.newOutputStream(output));
+        // Leave room for the index, it is filled in once the compressed lengths are known
+        long indexPosition = output.position() + 4;
+        ByteBuffer index = ByteBuffer.allocate(4 + blockCount * INDEX_ENTRY_SIZE);
+        index.putInt(blockCount);
+        output.position(indexPosition + (long) blockCount * INDEX_ENTRY_SIZE);
+
+        TableEncoder encoder = (table != null)? new TableEncoder(table) : null;
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            ArrayDeque<ForkJoinTask<byte[]>> inFlight = new ArrayDeque<>();
+            int next = 0, written = 0;
+            while (written < blockCount) {
+                // Keep a bounded window of blocks in flight and write them back in order
+                while (next < blockCount && inFlight.size() < 2 * threads) {
+                    long offset = (long) next * size;
+                    int length = (int) Math.min(size, originalLength - offset);
+                    inFlight.add(pool.submit(() -> encodeBlock(input, offset, length, n, encoder)));
+                    next++;
+                }
+                byte[] block = inFlight.poll().join();
+                index.putLong(output.position()).putInt(block.length).putInt((int) Math.min(size, originalLength - (long) written * size));
+                writeFully(output, ByteBuffer.wrap(block));
+                written++;
+            }
+        } finally {
+            pool.shutdown();
+        }
+        output.write(index.flip(), indexPosition - 4);
+    }
+
+    private byte[] encodeBlock(FileChannel input, long offset, int length, byte n, TableEncoder encoder) {
+        try {
+            byte[] block = new byte[length];
+            readFully(input, ByteBuffer.wrap(block), offset);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(length / 2 + 64);
+            if (encoder == null) {
+                // Build the block's own table from the block's counts and put it in front of the payload
+                FrequencyCounter counter = new FrequencyCounter(n);
+                counter.add(block, 0, length);
+                CodeTable table = HuffmanCodeManager.canonicalTable(counter.finish(), maxCodeLength);
+                table.writeCanonical(out);
+                encoder = new TableEncoder(table);
+            }
+            if (streams > 1) {
+                encodeStreams(block, encoder, out);
+            } else {
+                BitWriter writer = new BitWriter(out, 1 << 16);
+                encoder.encode(block, 0, length, writer);
+                writer.finish();
+            }
+            return out.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void encodeStreams(byte[] block, TableEncoder encoder, ByteArrayOutputStream out) throws IOException {
+        ByteArrayOutputStream[] payloads = new ByteArrayOutputStream[streams];
+        BitWriter[] writers = new BitWriter[streams];
+        for (int i=0 ; i<streams ; i++) {
+            payloads[i] = new ByteArrayOutputStream(block.length / (2 * streams) + 64);
+            writers[i] = new BitWriter(payloads[i], 1 << 14);
+        }
+        encoder.encodeInterleaved(block, 0, block.length, writers);
+        ByteBuffer streamLengths = ByteBuffer.allocate(4 * (streams - 1));
+        for (int i=0 ; i<streams ; i++) {
+            writers[i].finish();
+            if (i < streams - 1) streamLengths.putInt(payloads[i].size());
+        }
+        out.write(streamLengths.array());
+        for (ByteArrayOutputStream payload : payloads) payload.writeTo(out);
+    }
+
+    public void decompress(FileChannel input, byte n, long originalLength, FileChannel output) throws IOException {
+        // The channel is positioned right after the common header
+        readIndex(input, n, originalLength);
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            ArrayDeque<ForkJoinTask<byte[]>> inFlight = new ArrayDeque<>();
+            int next = 0, written = 0;
+            while (written < blockCount) {
+                while (next < blockCount && inFlight.size() < 2 * threads) {
+                    int i = next++;
+                    inFlight.add(pool.submit(() -> decodeBlock(input, offsets[i], compressedLengths[i], lengths[i], n, shared, storedStreams)));
+                }
+                writeFully(output, ByteBuffer.wrap(inFlight.poll().join()));
+                written++;
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    public byte[] decompressRange(FileChannel input, byte n, long originalLength, long offset, int length) throws IOException {
+        // Only the blocks overlapping [offset, offset + length) are read and decoded
+        readIndex(input, n, originalLength);
+        byte[] range = new byte[length];
+        if (length == 0) return range;
+        for (int i=(int) (offset / storedBlockSize) ; i<=(offset + length - 1) / storedBlockSize ; i++) {
+            byte[] block = decodeBlock(input, offsets[i], compressedLengths[i], lengths[i], n, shared, storedStreams);
+            long blockStart = (long) i * storedBlockSize;
+            long from = Math.max(offset, blockStart), to = Math.min(offset + length, blockStart + block.length);
+            System.arraycopy(block, (int) (from - blockStart), range, (int) (from - offset), (int) (to - from));
+        }
+        return range;
+    }
+
+    private void readIndex(FileChannel input, byte n, long originalLength) throws IOException {
+        DataInputStream header = new DataInputStream(new BufferedInputStream(Channels.newInputStream(input)));
+        storedBlockSize = header.readInt(); // Every block but the last holds exactly this many bytes
+        byte tableMode = header.readByte();
+        if (tableMode != SHARED_TABLE && tableMode != BLOCK_TABLES)
+            throw new IOException("Unsupported block table mode: " + tableMode);
+        storedStreams = (streams > 1)? header.readUnsignedByte() : 1;
+        if (storedStreams < 1 || storedStreams > MAX_STREAMS)
+            throw new IOException("Unsupported stream count: " + storedStreams);
+        CodeTable table = (tableMode == SHARED_TABLE)? CodeTable.readCanonical(header, n, originalLength) : null;
+        blockCount = header.readInt();
+        offsets = new long[blockCount];
+        compressedLengths = new int[blockCount];
+        lengths = new int[blockCount];
+        for (int i=0 ; i<blockCount ; i++) {
+            offsets[i] = header.readLong();
+            compressedLengths[i] = header.readInt();
+            lengths[i] = header.readInt();
+        }
+        shared = (table != null)? new TableDecoder(table) : null;
+    }
+
+    private static byte[] decodeBlock(FileChannel input, long offset, int compressedLength, int length, byte n, TableDecoder shared, int streams) {
+        try {
+            byte[] compressed = new byte[compressedLength], block = new byte[length];
+            readFully(input, ByteBuffer.wrap(compressed), offset);
+            int payloadOffset = 0;
+            TableDecoder decoder;
+            if (shared != null) {
+                decoder = new TableDecoder(shared);
+            } else { // The block starts with its own table
+                ByteArrayInputStream in = new ByteArrayInputStream(compressed);
+                decoder = new TableDecoder(CodeTable.readCanonical(in, n, length));
+                payloadOffset = compressedLength - in.available();
+            }
+            if (streams > 1) {
+                // Stream lengths, the last stream takes whatever is left
+                ByteBuffer streamLengths = ByteBuffer.wrap(compressed, payloadOffset, 4 * (streams - 1));
+                int[] offsets = new int[streams], lengths = new int[streams];
+                int position = payloadOffset + 4 * (streams - 1);
+                for (int i=0 ; i<streams ; i++) {
+                    offsets[i] = position;
+                    lengths[i] = (i < streams - 1)? streamLengths.getInt() : compressedLength - position;
+                    position += lengths[i];
+                }
+                if (lengths[streams - 1] < 0) throw new IOException("Corrupt stream lengths");
+                decoder.decodeInterleaved(compressed, offsets, lengths, block, 0, length);
+            } else {
+                decoder.decode(compressed, payloadOffset, compressedLength - payloadOffset, block, 0, length);
+            }
+            return block;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) throw new EOFException("Unexpected end of file at " + position);
+            position += read;
+        }
+    }
+
+    static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) channel.write(buffer);
+    }
+}
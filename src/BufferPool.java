@@ -0,0 +1,42 @@
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+
+public class BufferPool {
+    // Memory under the cap is handed out in units of one buffer. A job takes everything it needs in a single
+    // call, either as buffers or as a reservation for memory it allocates itself, so jobs waiting for memory
+    // never hold part of it and the total stays under the cap however many jobs are running.
+    final int bufferSize;
+    private final int units;
+    private final Semaphore available;
+    private final ConcurrentLinkedQueue<byte[]> free = new ConcurrentLinkedQueue<>();
+
+    public BufferPool(long capacity, int bufferSize) {
+        if (capacity / bufferSize < 2)
+            throw new IllegalArgumentException("The memory cap must hold at least two " + bufferSize + "-byte buffers");
+        this.bufferSize = bufferSize;
+        units = (int) Math.min(capacity / bufferSize, Integer.MAX_VALUE);
+        available = new Semaphore(units, true);
+    }
+
+    public byte[][] acquire(int count, long reservedBytes) throws InterruptedException {
+        int needed = count + units(reservedBytes);
+        if (needed > units)
+            throw new IllegalArgumentException("A job needs " + (long) needed * bufferSize + " bytes, more than the memory cap");
+        available.acquire(needed);
+        byte[][] buffers = new byte[count][];
+        for (int i=0 ; i<count ; i++) {
+            byte[] buffer = free.poll();
+            buffers[i] = (buffer != null)? buffer : new byte[bufferSize];
+        }
+        return buffers;
+    }
+
+    public void release(byte[][] buffers, long reservedBytes) {
+        for (byte[] buffer : buffers) free.add(buffer);
+        available.release(buffers.length + units(reservedBytes));
+    }
+
+    private int units(long bytes) {
+        return (int) Math.min((bytes + bufferSize - 1) / bufferSize, Integer.MAX_VALUE);
+    }
+}
@@ -0,0 +1,78 @@
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+
+public class BufferRing {
+    public static final int DEFAULT_DEPTH = 4;
+    public static final int DEFAULT_BUFFER_SIZE = 1 << 20; // 1 MB
+    public static final int MIN_BUFFER_SIZE = 4096;
+
+    // A fixed set of buffers going round between one producer and one consumer thread: the producer takes
+    // an empty buffer, fills it and hands it over, the consumer takes the filled ones in order and gives them
+    // back. Nothing is allocated after the start, and the producer can't run more than depth buffers ahead.
+    static final class Chunk {
+        final byte[] data;
+        int length;
+
+        Chunk(byte[] data) {
+            this.data = data;
+        }
+    }
+
+    private final ArrayBlockingQueue<Chunk> empty, full;
+    // Time each side spent waiting on the other, every counter is only updated by its own side
+    private long producerStallNanos, consumerStallNanos;
+
+    public BufferRing(int depth, int bufferSize) {
+        empty = new ArrayBlockingQueue<>(depth);
+        full = new ArrayBlockingQueue<>(depth + 1); // Room for the end marker on top of the buffers
+        for (int i=0 ; i<depth ; i++) empty.add(new Chunk(new byte[bufferSize]));
+    }
+
+    public static long bytes(int depth, int bufferSize) {
+        return (long) depth * bufferSize;
+    }
+
+    Chunk takeEmpty() throws InterruptedIOException {
+        Chunk chunk = empty.poll();
+        if (chunk != null) return chunk;
+        long start = System.nanoTime();
+        chunk = take(empty);
+        producerStallNanos += System.nanoTime() - start;
+        return chunk;
+    }
+
+    Chunk takeFull() throws InterruptedIOException {
+        Chunk chunk = full.poll();
+        if (chunk != null) return chunk;
+        long start = System.nanoTime();
+        chunk = take(full);
+        consumerStallNanos += System.nanoTime() - start;
+        return chunk;
+    }
+
+    void putFull(Chunk chunk) {
+        full.add(chunk); // Never blocks, a side never holds more chunks than the ring has
+    }
+
+    void putEmpty(Chunk chunk) {
+        chunk.length = 0;
+        empty.add(chunk);
+    }
+
+    private static Chunk take(ArrayBlockingQueue<Chunk> queue) throws InterruptedIOException {
+        try {
+            return queue.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a buffer");
+        }
+    }
+
+    public long producerStallNanos() {
+        return producerStallNanos;
+    }
+
+    public long consumerStallNanos() {
+        return consumerStallNanos;
+    }
+}
@@ -0,0 +1,84 @@
+import java.util.Arrays;
+
+public class CodeLengths {
+    // Huffman code lengths of the first size counts, found on primitive arrays without building a tree:
+    // the symbols are sorted by count, then the lengths are computed in place in linear time
+    // (Moffat and Katajainen, "In-Place Calculation of Minimum-Redundancy Codes", 1995)
+    public static int[] huffman(long[] counts, int size) {
+        int[] lengths = new int[size];
+        if (size < 2) return lengths; // A lone word gets the empty code
+        int[] order = sortByCount(counts, size);
+        long[] a = new long[size];
+        for (int i=0 ; i<size ; i++) a[i] = counts[order[i]];
+
+        // First pass: merge the sorted leaves and the internal nodes (which come out sorted) as two queues.
+        // Every internal node ends up holding the index of its parent.
+        a[0] += a[1];
+        int root = 0, leaf = 2;
+        for (int next=1 ; next<size-1 ; next++) {
+            if (leaf >= size || a[root] < a[leaf]) {
+                a[next] = a[root];
+                a[root++] = next;
+            } else {
+                a[next] = a[leaf++];
+            }
+            if (leaf >= size || (root < next && a[root] < a[leaf])) {
+                a[next] += a[root];
+                a[root++] = next;
+            } else {
+                a[next] += a[leaf++];
+            }
+        }
+        // Second pass: parent indices to depths of the internal nodes, the root is the last one
+        a[size-2] = 0;
+        for (int next=size-3 ; next>=0 ; next--) a[next] = a[(int) a[next]] + 1;
+        // Third pass: leaf depths from the number of internal nodes on every level, deepest for the rarest
+        int available = 1, used = 0, depth = 0, next = size - 1;
+        root = size - 2;
+        while (available > 0) {
+            while (root >= 0 && a[root] == depth) {
+                used++;
+                root--;
+            }
+            while (available > used) {
+                a[next--] = depth;
+                available--;
+            }
+            available = 2 * used;
+            depth++;
+            used = 0;
+        }
+        for (int i=0 ; i<size ; i++) lengths[order[i]] = (int) a[i];
+        return lengths;
+    }
+
+    static int[] sortByCount(long[] counts, int size) {
+        // LSD radix sort of the symbol indices by count, one pass per byte, skipping bytes every count shares
+        int[] order = new int[size], nextOrder = new int[size];
+        long[] keys = Arrays.copyOf(counts, size), nextKeys = new long[size];
+        for (int i=0 ; i<size ; i++) order[i] = i;
+        int[] positions = new int[256];
+        for (int shift=0 ; shift<64 ; shift+=8) {
+            Arrays.fill(positions, 0);
+            for (int i=0 ; i<size ; i++) positions[(int) (keys[i] >>> shift) & 0xFF]++;
+            if (positions[(int) (keys[0] >>> shift) & 0xFF] == size) continue;
+            for (int b=0, sum=0 ; b<256 ; b++) {
+                int count = positions[b];
+                positions[b] = sum;
+                sum += count;
+            }
+            for (int i=0 ; i<size ; i++) {
+                int position = positions[(int) (keys[i] >>> shift) & 0xFF]++;
+                nextKeys[position] = keys[i];
+                nextOrder[position] = order[i];
+            }
+            long[] swapKeys = keys;
+            keys = nextKeys;
+            nextKeys = swapKeys;
+            int[] swapOrder = order;
+            order = nextOrder;
+            nextOrder = swapOrder;
+        }
+        return order;
+    }
+}
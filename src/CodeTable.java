@@ -0,0 +1,237 @@
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+public class CodeTable {
+    public static final int MAX_CODE_LENGTH = 57; // A code plus 7 pending bits still fits in a 64-bit accumulator
+
+    // Symbols are kept in increasing code order (the order of the leaves in a left-first DFS),
+    // words are stored flat with n bytes per symbol (a short last word is padded with zeros)
+    final byte n;
+    int size;
+    byte[] words;
+    byte[] lengths;
+    long[] codes;
+    int tail = -1; // Symbol of the short last word, only known on the compressing side
+    int escape = -1; // Symbol announcing a literal word, only in shared dictionaries
+
+    CodeTable(byte n, int capacity) {
+        this.n = n;
+        capacity = Math.max(capacity, 1);
+        words = new byte[capacity * n];
+        lengths = new byte[capacity];
+        codes = new long[capacity];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int maxLength() {
+        int max = 0;
+        for (int i=0 ; i<size ; i++) max = Math.max(max, lengths[i]);
+        return max;
+    }
+
+    void add(byte[] word, int wordOffset, int wordLength, int length, long code) {
+        if (size == lengths.length) {
+            int capacity = lengths.length * 2;
+            words = Arrays.copyOf(words, capacity * n);
+            lengths = Arrays.copyOf(lengths, capacity);
+            codes = Arrays.copyOf(codes, capacity);
+        }
+        if (wordLength < n) tail = size;
+        System.arraycopy(word, wordOffset, words, size * n, wordLength);
+        lengths[size] = (byte) length;
+        codes[size] = code;
+        size++;
+    }
+
+    public static CodeTable readLegacy(InputStream in, byte n, long originalLength) throws IOException {
+        // The legacy dictionary lists the leaves in DFS order, so every code is the previous one plus one,
+        // re-aligned to the new length. The last leaf is the all-ones code, which ends the dictionary.
+        CodeTable table = new CodeTable(n, 256);
+        if (originalLength == 0) return table; // An empty file is written without a dictionary
+        long code = 0;
+        int prevLength = 0;
+        while (true) {
+            byte[] entry = in.readNBytes(n+1);
+            if (entry.length < n+1)
+                throw new EOFException("Dictionary ended before the code space was complete");
+            int length = entry[n];
+            if (length < 0 || length > MAX_CODE_LENGTH)
+                throw new IOException("Unsupported code length in dictionary: " + length);
+            if (table.size > 0) code = nextCode(code, prevLength, length);
+            table.add(entry, 0, n, length, code);
+            if (code == (1L << length) - 1) return table;
+            prevLength = length;
+        }
+    }
+
+    private static long nextCode(long code, int prevLength, int length) {
+        code++;
+        return (length >= prevLength)? code << (length - prevLength) : code >>> (prevLength - length);
+    }
+
+    public static CodeTable canonical(WordFrequencies words, int[] depths, int maxLength) {
+        byte n = words.n;
+        int size = words.size, deepest = 0;
+        for (int depth : depths) deepest = Math.max(deepest, depth);
+        // The limit can't go below what is needed to give every symbol its own code
+        maxLength = Math.max(maxLength, 64 - Long.numberOfLeadingZeros(Math.max(size - 1, 0)));
+        // Stable counting sort of the symbols by their depth in the Huffman tree
+        int[] start = new int[deepest + 2];
+        for (int depth : depths) start[depth+1]++;
+        for (int i=1 ; i<start.length ; i++) start[i] += start[i-1];
+        int[] order = new int[size];
+        for (int i=0 ; i<size ; i++) order[start[depths[i]]++] = i;
+        // Limit the code lengths, then hand them out again in depth order so frequent symbols stay short
+        int[] lengthCounts = new int[Math.max(deepest, maxLength) + 1];
+        for (int depth : depths) lengthCounts[depth]++;
+        limitLengthCounts(lengthCounts, maxLength);
+        CodeTable table = new CodeTable(n, size);
+        int length = 0;
+        for (int i : order) {
+            while (lengthCounts[length] == 0) length++;
+            lengthCounts[length]--;
+            table.add(words.words, i * n, (i == words.tail)? words.tailLength : n, length, 0);
+        }
+        table.assignCanonicalCodes();
+        return table;
+    }
+
+    static void limitLengthCounts(int[] lengthCounts, int maxLength) {
+        // Each step moves two leaves from the deepest level up: they become a leaf one level up and the
+        // children of a former leaf further up, which keeps the Kraft sum at exactly one (JPEG Annex K.3)
+        for (int i=lengthCounts.length-1 ; i>maxLength ; i--) {
+            while (lengthCounts[i] > 0) {
+                int j = i - 2;
+                while (lengthCounts[j] == 0) j--;
+                lengthCounts[i] -= 2;
+                lengthCounts[i-1]++;
+                lengthCounts[j+1] += 2;
+                lengthCounts[j]--;
+            }
+        }
+    }
+
+    private void assignCanonicalCodes() {
+        // Lengths are non-decreasing, every code is the previous one plus one shifted to the new length
+        long code = 0;
+        int prevLength = (size > 0)? lengths[0] : 0;
+        for (int i=0 ; i<size ; i++) {
+            if (i > 0) code = (code + 1) << (lengths[i] - prevLength);
+            codes[i] = code;
+            prevLength = lengths[i];
+        }
+    }
+
+    public void writeCanonical(OutputStream out) throws IOException {
+        // Only the maximum length, the number of codes of every length and the sorted words are stored,
+        // the counts as varints since most of them are small
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+        int maxLength = maxLength();
+        int[] lengthCounts = new int[maxLength + 1];
+        for (int i=0 ; i<size ; i++) lengthCounts[lengths[i]]++;
+        data.writeByte(maxLength);
+        for (int length=1 ; length<=maxLength ; length++) writeVarint(data, lengthCounts[length]);
+        data.write(words, 0, size * n);
+        data.flush();
+    }
+
+    public long canonicalLength() {
+        // The bytes writeCanonical takes, so a reader can skip to what follows the table
+        int maxLength = maxLength();
+        int[] lengthCounts = new int[maxLength + 1];
+        for (int i=0 ; i<size ; i++) lengthCounts[lengths[i]]++;
+        long length = 1 + (long) size * n;
+        for (int l=1 ; l<=maxLength ; l++)
+            for (int count=lengthCounts[l] ; ; count>>>=7) {
+                length++;
+                if ((count & ~0x7F) == 0) break;
+            }
+        return length;
+    }
+
+    // A table with an escape symbol: the escape (4), then the canonical table with the escape as its tail
+    public void writeEscaped(OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(escape);
+        data.flush();
+        writeCanonical(out);
+    }
+
+    public static CodeTable readEscaped(InputStream in, byte n) throws IOException {
+        int escape = new DataInputStream(in).readInt();
+        CodeTable table = readCanonical(in, n, 1);
+        if (escape < 0 || escape >= table.size)
+            throw new IOException("Escape symbol out of range: " + escape);
+        table.escape = escape;
+        table.tail = escape;
+        return table;
+    }
+
+    public static CodeTable readCanonical(InputStream in, byte n, long originalLength) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        int maxLength = data.readUnsignedByte();
+        if (maxLength > MAX_CODE_LENGTH)
+            throw new IOException("Unsupported code length in dictionary: " + maxLength);
+        // Every count has to fit in the codes still free at its length, and the table in the words possible for n
+        long maxSymbols = maxSymbols(n), free = 1;
+        int[] lengthCounts = new int[maxLength + 1];
+        int size = 0;
+        for (int length=1 ; length<=maxLength ; length++) {
+            lengthCounts[length] = readVarint(data);
+            free = 2 * free - lengthCounts[length];
+            size += lengthCounts[length];
+            if (free < 0 || size > maxSymbols)
+                throw new IOException("Corrupt dictionary: " + lengthCounts[length] + " codes of length " + length);
+        }
+        if (maxLength > 0 && free != 0)
+            throw new IOException("Corrupt dictionary: the code lengths leave codes unused");
+        if (maxLength == 0 && originalLength > 0) { // A single symbol gets the empty code
+            lengthCounts[0] = 1;
+            size = 1;
+        }
+        CodeTable table = new CodeTable(n, size);
+        data.readFully(table.words, 0, size * n);
+        for (int length=0 ; length<=maxLength ; length++)
+            for (int i=0 ; i<lengthCounts[length] ; i++) table.lengths[table.size++] = (byte) length;
+        table.assignCanonicalCodes();
+        return table;
+    }
+
+    private static long maxSymbols(byte n) throws IOException {
+        // Every word of n bytes and the short last word, as far as the flat word array can hold them
+        if (n < 1) throw new IOException("Unsupported word size: " + n);
+        long limit = (Integer.MAX_VALUE - 8) / n;
+        return (n < 4)? Math.min((1L << (8 * n)) + 1, limit) : limit;
+    }
+
+    private static void writeVarint(DataOutputStream out, int value) throws IOException {
+        // Seven bits per byte, low bits first, the high bit says another byte follows
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarint(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift=0 ; shift<35 ; shift+=7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                if (value > Integer.MAX_VALUE) break;
+                return (int) value;
+            }
+        }
+        throw new IOException("Corrupt dictionary: count out of range");
+    }
+}
@@ -0,0 +1,11 @@
+public interface CompressionListener {
+    // Called on the thread running the job, as soon as each phase ends
+    default void phaseCompleted(CompressionMetrics.Phase phase, long nanos) {
+    }
+
+    default void finished(CompressionMetrics metrics) {
+    }
+
+    default void failed(Throwable error) {
+    }
+}
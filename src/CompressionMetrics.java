@@ -0,0 +1,194 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+public class CompressionMetrics {
+    public enum Phase { COUNT, TREE, HEADER, ENCODE, DECODE }
+    public enum Stage { READ, CODE, WRITE } // Pipelined stages, each one waits for the next to catch up
+
+    // Filled in while a single compress or decompress call runs. Every phase is also committed as a JFR
+    // event, and the totals as one more when the job ends, so they line up with GC events in a recording.
+    final String operation, path;
+    final long[] phaseNanos = new long[Phase.values().length];
+    final long[] stallNanos = new long[Stage.values().length];
+    long bytesRead, bytesWritten;
+    int distinctSymbols, maxCodeLength;
+    double entropy = Double.NaN, bitsPerSymbol = Double.NaN; // Bits per n-byte word
+    long bufferBytes, peakBufferBytes;
+    Throwable error; // Set when the job failed
+    private final CompressionListener listener;
+    private Phase phase;
+    private long phaseStart;
+    private PhaseEvent phaseEvent;
+
+    CompressionMetrics(String operation, String path, CompressionListener listener) {
+        this.operation = operation;
+        this.path = path;
+        this.listener = listener;
+    }
+
+    void begin(Phase phase) {
+        this.phase = phase;
+        phaseEvent = new PhaseEvent();
+        phaseEvent.begin();
+        phaseStart = System.nanoTime();
+    }
+
+    void end() {
+        long nanos = System.nanoTime() - phaseStart;
+        phaseNanos[phase.ordinal()] += nanos;
+        phaseEvent.end();
+        if (phaseEvent.shouldCommit()) {
+            phaseEvent.operation = operation;
+            phaseEvent.phase = phase.name();
+            phaseEvent.path = path;
+            phaseEvent.commit();
+        }
+        if (listener != null) listener.phaseCompleted(phase, nanos);
+    }
+
+    void stall(Stage stage, long nanos) {
+        stallNanos[stage.ordinal()] += nanos;
+    }
+
+    void allocate(long bytes) {
+        bufferBytes += bytes;
+        peakBufferBytes = Math.max(peakBufferBytes, bufferBytes);
+    }
+
+    void release(long bytes) {
+        bufferBytes -= bytes;
+    }
+
+    void finish() {
+        JobEvent event = new JobEvent();
+        if (event.shouldCommit()) {
+            event.operation = operation;
+            event.path = path;
+            event.bytesRead = bytesRead;
+            event.bytesWritten = bytesWritten;
+            event.distinctSymbols = distinctSymbols;
+            event.maxCodeLength = maxCodeLength;
+            event.entropy = entropy;
+            event.bitsPerSymbol = bitsPerSymbol;
+            event.peakBufferBytes = peakBufferBytes;
+            event.readStall = stallNanos[Stage.READ.ordinal()];
+            event.codeStall = stallNanos[Stage.CODE.ordinal()];
+            event.writeStall = stallNanos[Stage.WRITE.ordinal()];
+            event.commit();
+        }
+        if (listener != null) listener.finished(this);
+    }
+
+    void fail(Throwable error) {
+        this.error = error;
+        if (listener != null) listener.failed(error);
+    }
+
+    public Throwable error() {
+        return error;
+    }
+
+    public long phaseNanos(Phase phase) {
+        return phaseNanos[phase.ordinal()];
+    }
+
+    public long stallNanos(Stage stage) {
+        return stallNanos[stage.ordinal()];
+    }
+
+    public long bytesRead() {
+        return bytesRead;
+    }
+
+    public long bytesWritten() {
+        return bytesWritten;
+    }
+
+    public int distinctSymbols() {
+        return distinctSymbols;
+    }
+
+    public int maxCodeLength() {
+        return maxCodeLength;
+    }
+
+    public double entropy() {
+        return entropy;
+    }
+
+    public double bitsPerSymbol() {
+        return bitsPerSymbol;
+    }
+
+    public long peakBufferBytes() {
+        return peakBufferBytes;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder summary = new StringBuilder(operation + " " + path + "\n");
+        for (Phase p : Phase.values())
+            if (phaseNanos[p.ordinal()] > 0) summary.append("  ").append(p).append(": ").append(phaseNanos[p.ordinal()] / 1e6).append("ms\n");
+        for (Stage stage : Stage.values())
+            if (stallNanos[stage.ordinal()] > 0) summary.append("  ").append(stage).append(" stalled: ").append(stallNanos[stage.ordinal()] / 1e6).append("ms\n");
+        summary.append("  Bytes read: ").append(bytesRead).append(", written: ").append(bytesWritten).append('\n');
+        if (distinctSymbols > 0)
+            summary.append("  Distinct symbols: ").append(distinctSymbols).append(", max code length: ").append(maxCodeLength).append('\n');
+        if (!Double.isNaN(entropy)) summary.append("  Entropy: ").append(entropy).append(" bits/symbol\n");
+        if (!Double.isNaN(bitsPerSymbol)) summary.append("  Achieved: ").append(bitsPerSymbol).append(" bits/symbol\n");
+        summary.append("  Peak buffers: ").append(peakBufferBytes).append(" bytes");
+        return summary.toString();
+    }
+
+    @Name("huffman.Phase")
+    @Label("Huffman Phase")
+    @Category("Huffman Coding")
+    static class PhaseEvent extends Event {
+        @Label("Operation")
+        String operation;
+        @Label("Phase")
+        String phase;
+        @Label("Path")
+        String path;
+    }
+
+    @Name("huffman.Job")
+    @Label("Huffman Job")
+    @Category("Huffman Coding")
+    static class JobEvent extends Event {
+        @Label("Operation")
+        String operation;
+        @Label("Path")
+        String path;
+        @Label("Bytes Read")
+        @DataAmount
+        long bytesRead;
+        @Label("Bytes Written")
+        @DataAmount
+        long bytesWritten;
+        @Label("Distinct Symbols")
+        int distinctSymbols;
+        @Label("Max Code Length")
+        int maxCodeLength;
+        @Label("Entropy (bits/symbol)")
+        double entropy;
+        @Label("Achieved Bits per Symbol")
+        double bitsPerSymbol;
+        @Label("Peak Buffer Usage")
+        @DataAmount
+        long peakBufferBytes;
+        @Label("Reader Stall")
+        @Timespan
+        long readStall;
+        @Label("Coder Stall")
+        @Timespan
+        long codeStall;
+        @Label("Writer Stall")
+        @Timespan
+        long writeStall;
+    }
+}
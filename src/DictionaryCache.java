@@ -0,0 +1,38 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class DictionaryCache {
+    public static final int DEFAULT_CAPACITY = 16;
+
+    // Least recently used dictionaries are dropped first, along with their decode tables
+    private final LinkedHashMap<Long, SharedDictionary> dictionaries;
+
+    public DictionaryCache(int capacity) {
+        dictionaries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, SharedDictionary> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    public synchronized SharedDictionary get(String directory, long id) throws IOException {
+        SharedDictionary dictionary = dictionaries.get(id);
+        if (dictionary == null) {
+            String path = directory + File.separator + String.format("%016x", id) + SharedDictionary.EXTENSION;
+            if (!new File(path).exists())
+                throw new IOException("Dictionary " + String.format("%016x", id) + " not found in " + directory);
+            dictionary = SharedDictionary.read(path);
+            if (dictionary.id() != id)
+                throw new IOException("Dictionary file doesn't match its id: " + path);
+            dictionaries.put(id, dictionary);
+        }
+        return dictionary;
+    }
+
+    public synchronized int size() {
+        return dictionaries.size();
+    }
+}
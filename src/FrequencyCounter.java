@@ -0,0 +1,187 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+public class FrequencyCounter {
+    public static final int MIN_RANGE_SIZE = 1 << 20; // Smaller inputs aren't worth splitting
+    private final byte n;
+    // Words of up to 8 bytes are packed into a long: n <= 2 indexes a histogram directly,
+    // n <= 8 uses a primitive hash table and only longer words fall back to ByteWord keys
+    private long[] histogram;
+    private LongLongMap table;
+    private HashMap<ByteWord, Long> wordTable;
+    private byte[] tail;
+
+    public FrequencyCounter(byte n) {
+        this.n = n;
+        if (n <= 2) histogram = new long[1 << (8 * n)];
+        else if (n <= 8) table = new LongLongMap();
+        else wordTable = new HashMap<>();
+    }
+
+    public void add(byte[] buffer, int offset, int length) {
+        // Only the last call may end with a short word, it is kept as the tail
+        int end = offset + length, fullEnd = end - length % n;
+        if (n == 1) {
+            for (int i=offset ; i<end ; i++) histogram[buffer[i] & 0xFF]++;
+        } else if (n == 2) {
+            for (int i=offset ; i<fullEnd ; i+=2) histogram[(buffer[i] & 0xFF) << 8 | (buffer[i+1] & 0xFF)]++;
+        } else if (n <= 8) {
+            for (int i=offset ; i<fullEnd ; i+=n) table.add(WordFrequencies.pack(buffer, i, n), 1);
+        } else {
+            for (int i=offset ; i<fullEnd ; i+=n) {
+                byte[] word = new byte[n];
+                System.arraycopy(buffer, i, word, 0, n);
+                wordTable.merge(new ByteWord(word), 1L, Long::sum);
+            }
+        }
+        if (fullEnd < end) {
+            tail = new byte[end - fullEnd];
+            System.arraycopy(buffer, fullEnd, tail, 0, tail.length);
+        }
+    }
+
+    public void add(ByteBuffer buffer, int offset, int length) {
+        // Same as above, reading the words straight out of a (mapped) buffer
+        int end = offset + length, fullEnd = end - length % n;
+        if (n == 1) {
+            for (int i=offset ; i<end ; i++) histogram[buffer.get(i) & 0xFF]++;
+        } else if (n == 2) {
+            for (int i=offset ; i<fullEnd ; i+=2) histogram[buffer.getShort(i) & 0xFFFF]++;
+        } else if (n <= 8) {
+            for (int i=offset ; i<fullEnd ; i+=n) table.add(WordFrequencies.pack(buffer, i, n), 1);
+        } else {
+            for (int i=offset ; i<fullEnd ; i+=n) {
+                byte[] word = new byte[n];
+                buffer.get(i, word);
+                wordTable.merge(new ByteWord(word), 1L, Long::sum);
+            }
+        }
+        if (fullEnd < end) {
+            tail = new byte[end - fullEnd];
+            buffer.get(fullEnd, tail);
+        }
+    }
+
+    public void merge(FrequencyCounter other) {
+        if (histogram != null) {
+            for (int i=0 ; i<histogram.length ; i++) histogram[i] += other.histogram[i];
+        } else if (table != null) {
+            table.addAll(other.table);
+        } else {
+            other.wordTable.forEach((word, count) -> wordTable.merge(word, count, Long::sum));
+        }
+        if (other.tail != null) tail = other.tail;
+    }
+
+    public static WordFrequencies count(FileChannel input, long length, byte n, int threads, boolean mapped) throws IOException {
+        // Every worker counts its own range of whole words into its own counter, only the last range
+        // can end with the short word. The counters are merged in range order at the end.
+        int ranges = ranges(length, threads);
+        long rangeSize = rangeSize(length, ranges, n);
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            ArrayList<ForkJoinTask<FrequencyCounter>> tasks = new ArrayList<>();
+            for (long start=0 ; start<length ; start+=rangeSize) {
+                long from = start, to = Math.min(length, start + rangeSize);
+                tasks.add(pool.submit(() -> mapped? countMappedRange(input, from, to, n) : countRange(input, from, to, n)));
+            }
+            FrequencyCounter counter = new FrequencyCounter(n);
+            for (ForkJoinTask<FrequencyCounter> task : tasks) counter.merge(task.join());
+            return counter.finish();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    static long bufferBytes(long length, byte n, int threads, boolean mapped) {
+        // What count holds at once: every window of the mapped file, or a read buffer per range
+        if (mapped) return length;
+        int ranges = ranges(length, threads);
+        return ranges * Math.min(rangeSize(length, ranges, n), (long) (HuffmanCodeManager.IO_BUFFER_SIZE/n)*n);
+    }
+
+    private static int ranges(long length, int threads) {
+        return (int) Math.max(1, Math.min(threads, length / MIN_RANGE_SIZE));
+    }
+
+    private static long rangeSize(long length, int ranges, byte n) {
+        return ((length + ranges - 1) / ranges + n - 1) / n * n;
+    }
+
+    private static FrequencyCounter countRange(FileChannel input, long from, long to, byte n) {
+        FrequencyCounter counter = new FrequencyCounter(n);
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(to - from, (long) (HuffmanCodeManager.IO_BUFFER_SIZE/n)*n));
+        try {
+            for (long position=from ; position<to ; position+=buffer.limit()) {
+                buffer.clear().limit((int) Math.min(buffer.capacity(), to - position));
+                BlockCodec.readFully(input, buffer, position);
+                counter.add(buffer.array(), 0, buffer.limit());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return counter;
+    }
+
+    private static FrequencyCounter countMappedRange(FileChannel input, long from, long to, byte n) {
+        FrequencyCounter counter = new FrequencyCounter(n);
+        try {
+            for (MappedByteBuffer window : MappedInputStream.windows(input, from, to, n))
+                counter.add(window, 0, window.limit());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return counter;
+    }
+
+    public WordFrequencies finish() {
+        int size = (tail != null)? 1 : 0;
+        if (histogram != null) {
+            for (long count : histogram) if (count != 0) size++;
+        } else if (table != null) {
+            size += table.size();
+        } else {
+            size += wordTable.size();
+        }
+        byte[] words = new byte[size * n];
+        long[] counts = new long[size];
+        int i = 0;
+        if (histogram != null) {
+            for (int key=0 ; key<histogram.length ; key++) {
+                if (histogram[key] == 0) continue;
+                WordFrequencies.unpack(key, words, i * n, n);
+                counts[i++] = histogram[key];
+            }
+        } else if (table != null) {
+            for (long key : table.sortedKeys()) {
+                WordFrequencies.unpack(key, words, i * n, n);
+                counts[i++] = table.get(key);
+            }
+        } else {
+            // Sorted like the packed keys, so the result doesn't depend on how the counting was split
+            ArrayList<Map.Entry<ByteWord, Long>> entries = new ArrayList<>(wordTable.entrySet());
+            entries.sort((a, b) -> Arrays.compareUnsigned(a.getKey().bytes(), b.getKey().bytes()));
+            for (Map.Entry<ByteWord, Long> entry : entries) {
+                System.arraycopy(entry.getKey().bytes(), 0, words, i * n, n);
+                counts[i++] = entry.getValue();
+            }
+        }
+        if (tail != null) {
+            System.arraycopy(tail, 0, words, i * n, tail.length);
+            counts[i] = 1;
+            return new WordFrequencies(n, size, words, counts, i, tail.length);
+        }
+        return new WordFrequencies(n, size, words, counts, -1, 0);
+    }
+}
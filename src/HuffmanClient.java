@@ -0,0 +1,72 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+public class HuffmanClient {
+    public static final Path DEFAULT_SOCKET = Path.of(System.getProperty("java.io.tmpdir"), "huffman.sock");
+
+    // Forwards a command to a running daemon and prints its output, the exit status is the job's:
+    // HuffmanClient [@<socket path> | @<port>] c <path> <n> [options] | d <path> [options] | stop
+    public static void main(String[] args) {
+        String address = null;
+        if (args.length > 0 && args[0].startsWith("@")) {
+            address = args[0].substring(1);
+            args = Arrays.copyOfRange(args, 1, args.length);
+        }
+        if (args.length == 0) {
+            System.out.println("Usage: HuffmanClient [@<socket path> | @<port>] c <path> <n> [options] | d <path> [options] | stop");
+            System.exit(2);
+        }
+        try {
+            System.exit(send(address(address), absolutePaths(args), System.out));
+        } catch (IOException e) {
+            System.out.println("Can't reach the daemon: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    static SocketAddress address(String address) {
+        // A port number is a local TCP port, anything else the path of a Unix domain socket
+        if (address == null) return UnixDomainSocketAddress.of(DEFAULT_SOCKET);
+        if (address.matches("\\d+")) return new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(address));
+        return UnixDomainSocketAddress.of(address);
+    }
+
+    static String[] absolutePaths(String[] command) {
+        // The daemon has its own working directory, so relative paths are resolved on this side
+        String[] resolved = command.clone();
+        if (resolved.length > 1 && (resolved[0].equals("c") || resolved[0].equals("d")))
+            resolved[1] = Path.of(resolved[1]).toAbsolutePath().toString();
+        for (int i=2 ; i<resolved.length ; i++)
+            for (String option : new String[] {"dict:", "dicts:"})
+                if (resolved[i].startsWith(option))
+                    resolved[i] = option + Path.of(resolved[i].substring(option.length())).toAbsolutePath();
+        return resolved;
+    }
+
+    static int send(SocketAddress address, String[] command, PrintStream out) throws IOException {
+        // Request: argument count (4), the arguments (UTF). Response: status (4), output length (4), output (UTF-8).
+        try (SocketChannel channel = SocketChannel.open(address)) {
+            DataOutputStream request = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+            request.writeInt(command.length);
+            for (String argument : command) request.writeUTF(argument);
+            request.flush();
+            DataInputStream response = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+            int status = response.readInt();
+            out.write(response.readNBytes(response.readInt()));
+            out.flush();
+            return status;
+        }
+    }
+}
@@ -1,187 +1,538 @@
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.PriorityQueue;
 
 public class HuffmanCodeManager {
 
+    public enum DecoderType { TREE, TABLE }
+    public enum HeaderFormat { LEGACY, CANONICAL, BLOCKS }
+    public enum EncoderType { BIT_BUFFER, ACCUMULATOR }
+    public enum IoMode { STREAM, MAPPED }
+
     private final Map<ByteWord, BitVector> codewords = new HashMap<>(1024);
     private long originalByteLength;
-    public static final int MAX_BUFFER_SIZE = 524288000; // 500 MB
+    public static final int IO_BUFFER_SIZE = 1 << 20; // 1 MB for each read, write and header buffer
+    public static final byte FORMAT_CANONICAL = (byte) 0x81; // Legacy files start with n, which is never negative
+    public static final byte FORMAT_BLOCKS = (byte) 0x82;
+    public static final byte FORMAT_STREAM = (byte) 0x83;
+    public static final byte FORMAT_DICTIONARY = (byte) 0x84;
+    public static final byte FORMAT_ESCAPED = (byte) 0x85;
+    public static final byte FORMAT_INTERLEAVED = (byte) 0x86; // Blocks split into several bitstreams
+    public static final int DEFAULT_STREAMS = 4;
+    public static final int DEFAULT_MAX_CODE_LENGTH = 24;
+    private static final int SKETCH_COUNTERS = 4; // Sketch counters per kept word, more make the top words more exact
+    public static final byte AUTO_WORD_SIZE = 0; // Pass as the word size to pick n from a sample of the file
     private FileInputStream byteReader;
     private FileOutputStream byteWriter;
     private ByteBuffer dictionaryBuffer;
     private byte n;
+    private DecoderType decoderType = DecoderType.TABLE;
+    private HeaderFormat headerFormat = HeaderFormat.LEGACY;
+    private int maxCodeLength = DEFAULT_MAX_CODE_LENGTH;
+    private EncoderType encoderType = EncoderType.ACCUMULATOR;
+    private IoMode ioMode = IoMode.STREAM;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private int blockSize = BlockCodec.DEFAULT_BLOCK_SIZE;
+    private boolean singlePass;
+    private int streams = 1;
+    private int pipelineDepth, pipelineBufferSize = BufferRing.DEFAULT_BUFFER_SIZE;
+    private long syncInterval;
+    private CompressionListener listener;
+    private PrintStream console = System.out; // Messages and metrics, a daemon job sends them to its client
+    private CompressionMetrics metrics;
+    private long payloadStart;
+    private SharedDictionary dictionary;
+    private String dictionaryDirectory;
+    private int alphabetLimit;
+    private WordSizeEstimator.Estimate[] wordSizeEstimates;
+    private BufferPool bufferPool;
+    private byte[][] pooledBuffers;
+    private long reservedBytes;
+    // Dictionaries and their decode tables stay loaded across calls, files compressed with the same one
+    // don't read and build it again
+    private static final DictionaryCache DICTIONARIES = new DictionaryCache(DictionaryCache.DEFAULT_CAPACITY);
+
+    public void setDecoderType(DecoderType decoderType) {
+        this.decoderType = decoderType;
+    }
+
+    public void setEncoderType(EncoderType encoderType) {
+        this.encoderType = encoderType;
+    }
+
+    public void setHeaderFormat(HeaderFormat headerFormat) {
+        this.headerFormat = headerFormat;
+    }
+
+    public void setIoMode(IoMode ioMode) {
+        this.ioMode = ioMode;
+    }
+
+    public void setSinglePass(boolean singlePass) {
+        this.singlePass = singlePass;
+    }
+
+    public void setStreams(int streams) {
+        // Above 1 the blocks are written interleaved, which only the block container supports
+        if (streams < 1 || streams > BlockCodec.MAX_STREAMS)
+            throw new IllegalArgumentException("Stream count must be between 1 and " + BlockCodec.MAX_STREAMS);
+        this.streams = streams;
+    }
+
+    public void setPipeline(int depth, int bufferSize) {
+        // 0 reads, codes and writes on one thread. Otherwise reads and writes run on their own threads,
+        // up to depth buffers ahead of the coder on each side. Blocks and mapped files aren't pipelined.
+        if (depth < 0)
+            throw new IllegalArgumentException("Pipeline depth can't be negative");
+        if (bufferSize < BufferRing.MIN_BUFFER_SIZE)
+            throw new IllegalArgumentException("Pipeline buffers must be at least " + BufferRing.MIN_BUFFER_SIZE + " bytes");
+        this.pipelineDepth = depth;
+        this.pipelineBufferSize = bufferSize;
+    }
+
+    public void setSyncInterval(long syncInterval) {
+        // 0 writes no index, otherwise a sync point is recorded every syncInterval original bytes
+        if (syncInterval < 0)
+            throw new IllegalArgumentException("Sync interval can't be negative");
+        this.syncInterval = syncInterval;
+    }
+
+    public void setListener(CompressionListener listener) {
+        this.listener = listener;
+    }
+
+    void setConsole(PrintStream console) {
+        this.console = console;
+    }
+
+    // Metrics of the last compress or decompress call
+    public CompressionMetrics getMetrics() {
+        return metrics;
+    }
+
+    // Compress with a pre-trained dictionary instead of counting and embedding a table, null to stop
+    public void setDictionary(SharedDictionary dictionary) {
+        this.dictionary = dictionary;
+    }
+
+    // Keep codes for the alphabetLimit most frequent words only, found with a sketch of fixed size, and write
+    // every other word as an escape and its bytes. 0 keeps every word.
+    public void setAlphabetLimit(int alphabetLimit) {
+        if (alphabetLimit < 0)
+            throw new IllegalArgumentException("Alphabet limit can't be negative");
+        this.alphabetLimit = alphabetLimit;
+    }
+
+    // Where decompression looks for dictionaries, by default the directory of the compressed file
+    public void setDictionaryDirectory(String dictionaryDirectory) {
+        this.dictionaryDirectory = dictionaryDirectory;
+    }
+
+    // Working buffers come from the pool instead of being allocated by every job, see holdBuffers
+    public void setBufferPool(BufferPool bufferPool) {
+        this.bufferPool = bufferPool;
+    }
+
+    // Estimates of the last compression with an automatic word size, indexed by n-1
+    public WordSizeEstimator.Estimate[] getWordSizeEstimates() {
+        return wordSizeEstimates;
+    }
+
+    // The word size of the last compression or decompression
+    public byte getWordSize() {
+        return n;
+    }
+
+    public void setThreads(int threads) {
+        if (threads < 1)
+            throw new IllegalArgumentException("Thread count must be positive");
+        this.threads = threads;
+    }
+
+    public void setBlockSize(int blockSize) {
+        if (blockSize < BlockCodec.MIN_BLOCK_SIZE)
+            throw new IllegalArgumentException("Block size must be at least " + BlockCodec.MIN_BLOCK_SIZE + " bytes");
+        this.blockSize = blockSize;
+    }
+
+    public void setMaxCodeLength(int maxCodeLength) {
+        if (maxCodeLength < 1 || maxCodeLength > CodeTable.MAX_CODE_LENGTH)
+            throw new IllegalArgumentException("Maximum code length must be between 1 and " + CodeTable.MAX_CODE_LENGTH);
+        this.maxCodeLength = maxCodeLength;
+    }
 
     public String compress(String path, byte wordSize) {
         // Set n
-        this.n = wordSize;
+        this.n = (wordSize == AUTO_WORD_SIZE)? chooseWordSize(path) : wordSize;
         // Get the original byte size of the original file and create output file
         File input = new File(path);
         originalByteLength = input.length();
         String outputPath = input.getParent() + File.separator + "20010545." + n + "." + input.getName() + ".hc";
         File output = new File(outputPath);
+        new File(outputPath + SyncIndex.EXTENSION).delete(); // An index left by an earlier run won't match
         try {
             output.createNewFile();
         } catch (Exception e) {
-            System.out.println("Problem creating output file: " + e.getMessage());
+            console.println("Problem creating output file: " + e.getMessage());
         }
         // Write compressed file
+        metrics = new CompressionMetrics("compress", path, listener);
         try {
             // Prepare reader and writer
             byteReader = new FileInputStream(path);
             byteWriter = new FileOutputStream(output);
-            // Get the frequencies of the n-byte characters and reset it to the first position
-            Map<ByteWord, Integer> freqTable = getFrequencies();
-            byteReader.close();
-            byteReader = new FileInputStream(path);
-            // Build the Huffman tree
-            HTNode root = buildHuffmanTree(freqTable);
-            // Write the dictionary header along with the encoding
-            dictionaryBuffer = ByteBuffer.allocate(MAX_BUFFER_SIZE);
-            writeHeader(root);
-            // Prepare read and write buffers
-            byte[] readBuffer, word;
-            int readOffset;
-            BitBuffer writeBuffer = new BitBuffer(MAX_BUFFER_SIZE);
-            int readBufferSize = (int) Math.min(originalByteLength, (long) (MAX_BUFFER_SIZE/n)*n); // Read the whole file or a multiple of n
-            // Start writing the encoded data
-            while ((readBuffer = byteReader.readNBytes(readBufferSize)).length != 0) { // Fill read buffer
-                readOffset = 0;
-                // Get words from read buffer
-                while (readOffset < readBuffer.length){
-                    if (readOffset+n <= readBuffer.length) { // Next word is n bytes
-                        word = new byte[n];
-                        System.arraycopy(readBuffer, readOffset, word, 0, n);
-                    } else { // Next word is less than n bytes
-                        word = new byte[readBuffer.length - readOffset];
-                        System.arraycopy(readBuffer, readOffset, word, 0, readBuffer.length - readOffset);
-                    }
-                    readOffset += n;
-                    BitVector code = codewords.get(new ByteWord(word));
-                    if (writeBuffer.hasOverflow())
-                        byteWriter.write(writeBuffer.getFullBuffer());
-                    writeBuffer.appendBits(code);
-                }
-            }
-            if (!writeBuffer.isEmpty()) {
-                if (writeBuffer.hasOverflow())
-                    byteWriter.write(writeBuffer.getFullBuffer());
-                byteWriter.write(writeBuffer.getFromBuffer());
-            }
+            writeCompressedData(path, outputPath);
+            // Everything after the header counts towards the achieved bits per symbol
+            metrics.bytesWritten = byteWriter.getChannel().size();
+            long symbols = (originalByteLength + n - 1) / n;
+            if (symbols > 0) metrics.bitsPerSymbol = (metrics.bytesWritten - payloadStart) * 8.0 / symbols;
+            metrics.finish();
         } catch (Exception e) {
-            System.out.println("Error in compressing the file: " + e.getMessage());
-            e.printStackTrace();
+            // The message goes to the console, the cause stays on the metrics and reaches the listener
+            console.println("Error in compressing the file: " + e.getMessage());
+            metrics.fail(e);
         } finally {
+            releaseBuffers();
             closeIO();
         }
         return outputPath;
     }
 
-    private Map<ByteWord,Integer> getFrequencies() {
-        ByteWord word;
-        byte[] wordBytes, readBuffer;
-        HashMap<ByteWord, Integer> frequencyTable = new HashMap<>();
-        int length = 0, incompleteWordLen = 0, readOffset;
-        int readBufferSize = (int) Math.min(originalByteLength, (long) (MAX_BUFFER_SIZE/n)*n); // Read the whole file or a multiple of n
+    private byte chooseWordSize(String path) {
+        // A shared dictionary fixes n, otherwise take the n with the smallest estimated output
+        if (dictionary != null) return dictionary.wordSize();
+        try (FileInputStream in = new FileInputStream(path)) {
+            wordSizeEstimates = WordSizeEstimator.estimate(in.getChannel(), in.getChannel().size(), threads);
+            return WordSizeEstimator.best(wordSizeEstimates);
+        } catch (IOException e) {
+            console.println("Error in sampling the file, compressing with n=1: " + e.getMessage());
+            return 1;
+        }
+    }
 
-        try {
-            // Loop until the bytes read are 0
-            while ((readBuffer = byteReader.readNBytes(readBufferSize)).length != 0){
-                readOffset = 0;
-                while (readOffset < readBuffer.length) {
-                    // Check for last word
-                    if (readOffset+n <= readBuffer.length) {
-                        wordBytes = new byte[n];
-                        System.arraycopy(readBuffer, readOffset, wordBytes, 0, n);
-                    } else {
-                        // The last word will be smaller than n
-                        wordBytes = new byte[readBuffer.length - readOffset];
-                        System.arraycopy(readBuffer, readOffset, wordBytes, 0,readBuffer.length - readOffset);
-                    }
-                    readOffset += n;
-                    word = new ByteWord(wordBytes);
-                    frequencyTable.compute(word, (k,v) -> (v == null)? 1 : v+1);
-                    length += n;
+    private void writeCompressedData(String path, String outputPath) throws IOException {
+        boolean blocks = singlePass || (headerFormat == HeaderFormat.BLOCKS && dictionary == null);
+        if (streams > 1 && !blocks)
+            throw new IllegalArgumentException("Interleaved streams are only written in blocks");
+        holdBuffers(2, blocks? new BlockCodec(threads, blockSize, maxCodeLength, streams).bufferBytes(originalByteLength) : pipelineBytes());
+        if (dictionary != null) {
+            // Only the id of the dictionary is written, there is nothing to count or build
+            if (dictionary.wordSize() != n)
+                throw new IllegalArgumentException("Dictionary is for " + dictionary.wordSize() + "-byte words, not " + n);
+            metrics.begin(CompressionMetrics.Phase.HEADER);
+            writeFormatHeader(FORMAT_DICTIONARY);
+            byteWriter.write(ByteBuffer.allocate(8).putLong(dictionary.id()).array());
+            metrics.end();
+            metrics.distinctSymbols = dictionary.table.size();
+            metrics.maxCodeLength = dictionary.table.maxLength();
+            payloadStart = byteWriter.getChannel().position();
+            metrics.begin(CompressionMetrics.Phase.ENCODE);
+            metrics.bytesRead += originalByteLength;
+            SyncIndex syncIndex = writeEncodedData(dictionary.encoder());
+            metrics.end();
+            if (syncIndex != null) syncIndex.write(outputPath + SyncIndex.EXTENSION);
+            return;
+        }
+        if (alphabetLimit > 0) {
+            if (singlePass || headerFormat == HeaderFormat.BLOCKS)
+                throw new IllegalArgumentException("A bounded alphabet is only written as a single stream");
+            writeBounded(outputPath);
+            return;
+        }
+        if (singlePass) {
+            // Every block builds its table from its own counts, so the input is read only once
+            writeFormatHeader((streams > 1)? FORMAT_INTERLEAVED : FORMAT_BLOCKS);
+            payloadStart = byteWriter.getChannel().position();
+            writeBlocks(null);
+            return;
+        }
+        // Get the frequencies of the n-byte characters and reset it to the first position
+        metrics.begin(CompressionMetrics.Phase.COUNT);
+        long countBuffers = (pooledBuffers != null)? pooledBuffers[0].length
+                : FrequencyCounter.bufferBytes(originalByteLength, n, threads, ioMode == IoMode.MAPPED);
+        metrics.allocate(countBuffers);
+        WordFrequencies freqTable = getFrequencies();
+        metrics.release(countBuffers);
+        metrics.end();
+        metrics.bytesRead += originalByteLength;
+        metrics.entropy = freqTable.entropy();
+        byteReader.close();
+        byteReader = new FileInputStream(path);
+        // Build the code lengths and the codes
+        metrics.begin(CompressionMetrics.Phase.TREE);
+        // Canonical codes are in DFS order too, so the legacy header lists them as it would a tree,
+        // limited to what the legacy readers accept
+        CodeTable table = canonicalTable(freqTable, (headerFormat == HeaderFormat.LEGACY)? CodeTable.MAX_CODE_LENGTH : maxCodeLength);
+        metrics.end();
+        metrics.distinctSymbols = freqTable.size();
+        metrics.maxCodeLength = table.maxLength();
+        if (headerFormat == HeaderFormat.BLOCKS) {
+            // Blocks share one canonical table and are encoded in parallel straight from the file
+            writeFormatHeader((streams > 1)? FORMAT_INTERLEAVED : FORMAT_BLOCKS);
+            payloadStart = byteWriter.getChannel().position();
+            writeBlocks(table);
+            return;
+        }
+        // Write the dictionary header along with the encoding
+        metrics.begin(CompressionMetrics.Phase.HEADER);
+        if (headerFormat == HeaderFormat.CANONICAL) {
+            writeFormatHeader(FORMAT_CANONICAL);
+            table.writeCanonical(byteWriter);
+        } else {
+            // The whole header if it fits in one buffer, otherwise it goes out a buffer at a time
+            dictionaryBuffer = (pooledBuffers != null)? ByteBuffer.wrap(pooledBuffers[1])
+                    : ByteBuffer.allocate((int) Math.min((long) freqTable.size() * (n+1), IO_BUFFER_SIZE));
+            metrics.allocate(dictionaryBuffer.capacity());
+            writeHeader(table);
+            metrics.release(dictionaryBuffer.capacity());
+            dictionaryBuffer = null;
+        }
+        metrics.end();
+        payloadStart = byteWriter.getChannel().position();
+        metrics.begin(CompressionMetrics.Phase.ENCODE);
+        metrics.bytesRead += originalByteLength;
+        if (encoderType == EncoderType.ACCUMULATOR) {
+            SyncIndex syncIndex = writeEncodedData(new TableEncoder(table));
+            metrics.end();
+            if (syncIndex != null) syncIndex.write(outputPath + SyncIndex.EXTENSION);
+            return;
+        }
+        fillCodewords(table);
+        // Prepare read and write buffers
+        byte[] readBuffer, word;
+        int readOffset;
+        BitBuffer writeBuffer = new BitBuffer(IO_BUFFER_SIZE);
+        int readBufferSize = readBufferSize();
+        metrics.allocate(IO_BUFFER_SIZE + readBufferSize);
+        // Start writing the encoded data
+        while ((readBuffer = byteReader.readNBytes(readBufferSize)).length != 0) { // Fill read buffer
+            readOffset = 0;
+            // Get words from read buffer
+            while (readOffset < readBuffer.length){
+                if (readOffset+n <= readBuffer.length) { // Next word is n bytes
+                    word = new byte[n];
+                    System.arraycopy(readBuffer, readOffset, word, 0, n);
+                } else { // Next word is less than n bytes
+                    word = new byte[readBuffer.length - readOffset];
+                    System.arraycopy(readBuffer, readOffset, word, 0, readBuffer.length - readOffset);
                 }
+                readOffset += n;
+                BitVector code = codewords.get(new ByteWord(word));
+                if (writeBuffer.hasOverflow())
+                    byteWriter.write(writeBuffer.getFullBuffer());
+                writeBuffer.appendBits(code);
             }
+        }
+        if (!writeBuffer.isEmpty()) {
+            if (writeBuffer.hasOverflow())
+                byteWriter.write(writeBuffer.getFullBuffer());
+            byteWriter.write(writeBuffer.getFromBuffer());
+        }
+        metrics.release(IO_BUFFER_SIZE + readBufferSize);
+        metrics.end();
+    }
 
-            assert originalByteLength == length - n + incompleteWordLen;
+    private void writeBounded(String outputPath) throws IOException {
+        // Counting memory is the sketch, the table is at most alphabetLimit words and the escape
+        metrics.begin(CompressionMetrics.Phase.COUNT);
+        SpaceSaving sketch = new SpaceSaving(n, SKETCH_COUNTERS * alphabetLimit);
+        byte[] readBuffer = (pooledBuffers != null)? pooledBuffers[0] : new byte[readBufferSize()];
+        int readLength;
+        while ((readLength = byteReader.readNBytes(readBuffer, 0, readLimit(readBuffer))) != 0)
+            sketch.add(readBuffer, 0, readLength);
+        WordFrequencies frequencies = sketch.finish(alphabetLimit);
+        metrics.end();
+        metrics.bytesRead += originalByteLength;
+        byteReader.getChannel().position(0);
+        metrics.begin(CompressionMetrics.Phase.TREE);
+        CodeTable table = canonicalTable(frequencies, maxCodeLength);
+        table.escape = table.tail;
+        metrics.end();
+        metrics.distinctSymbols = table.size();
+        metrics.maxCodeLength = table.maxLength();
+        metrics.begin(CompressionMetrics.Phase.HEADER);
+        writeFormatHeader(FORMAT_ESCAPED);
+        table.writeEscaped(byteWriter);
+        metrics.end();
+        payloadStart = byteWriter.getChannel().position();
+        metrics.begin(CompressionMetrics.Phase.ENCODE);
+        metrics.bytesRead += originalByteLength;
+        SyncIndex syncIndex = writeEncodedData(new TableEncoder(table));
+        metrics.end();
+        if (syncIndex != null) syncIndex.write(outputPath + SyncIndex.EXTENSION);
+    }
 
-        } catch (Exception e) {
-            System.out.println("Error in collecting the frequencies: " + e.getMessage());
+    private void writeBlocks(CodeTable table) throws IOException {
+        // The block codec counts, builds the block tables (if any) and encodes, all of it is timed as encoding
+        BlockCodec codec = new BlockCodec(threads, blockSize, maxCodeLength, streams);
+        metrics.begin(CompressionMetrics.Phase.ENCODE);
+        metrics.allocate(codec.bufferBytes(originalByteLength));
+        codec.compress(byteReader.getChannel(), n, originalByteLength, table, byteWriter.getChannel());
+        metrics.release(codec.bufferBytes(originalByteLength));
+        metrics.end();
+        metrics.bytesRead += originalByteLength;
+    }
+
+    private SyncIndex writeEncodedData(TableEncoder encoder) throws IOException {
+        // Codes are shifted into a 64-bit accumulator, the loop itself allocates nothing
+        // Sync points fall on word boundaries, so the interval is rounded down to a multiple of n
+        SyncIndex syncIndex = (syncInterval > 0)?
+                new SyncIndex(Math.max(syncInterval / n, 1) * n, byteWriter.getChannel().position()) : null;
+        long position = 0;
+        if (ioMode == IoMode.MAPPED) {
+            // Words are read straight from the mapped input and the output goes out of a direct buffer
+            BitWriter writer = new BitWriter(byteWriter.getChannel(), IO_BUFFER_SIZE);
+            metrics.allocate(IO_BUFFER_SIZE);
+            for (MappedByteBuffer window : MappedInputStream.windows(byteReader.getChannel(), 0, originalByteLength, n)) {
+                if (syncIndex != null) position = encodeSynced(encoder, window, window.limit(), position, writer, syncIndex);
+                else encoder.encode(window, 0, window.limit(), writer);
+            }
+            writer.finish();
+            metrics.release(IO_BUFFER_SIZE);
+            return syncIndex;
+        }
+        PipelinedInputStream pipedIn = pipelinedReader();
+        PipelinedOutputStream pipedOut = pipelinedWriter();
+        byte[] readBuffer = (pooledBuffers != null)? pooledBuffers[0] : new byte[readBufferSize()];
+        metrics.allocate(IO_BUFFER_SIZE + readBuffer.length);
+        try (pipedIn; pipedOut) {
+            InputStream in = (pipedIn != null)? pipedIn : byteReader;
+            OutputStream out = (pipedOut != null)? pipedOut : byteWriter;
+            BitWriter writer = (pooledBuffers != null)? new BitWriter(out, pooledBuffers[1]) : new BitWriter(out, IO_BUFFER_SIZE);
+            int readLimit = readLimit(readBuffer);
+            ByteBuffer wrapped = ByteBuffer.wrap(readBuffer);
+            int readLength;
+            while ((readLength = in.readNBytes(readBuffer, 0, readLimit)) != 0) {
+                if (syncIndex != null) position = encodeSynced(encoder, wrapped, readLength, position, writer, syncIndex);
+                else encoder.encode(readBuffer, 0, readLength, writer);
+            }
+            writer.finish();
+        } finally {
+            recordStalls(pipedIn, pipedOut);
+            metrics.release(IO_BUFFER_SIZE + readBuffer.length);
+        }
+        return syncIndex;
+    }
+
+    private PipelinedInputStream pipelinedReader() {
+        if (pipelineDepth == 0) return null;
+        metrics.allocate(BufferRing.bytes(pipelineDepth, pipelineBufferSize));
+        return new PipelinedInputStream(byteReader, pipelineDepth, pipelineBufferSize);
+    }
+
+    private PipelinedOutputStream pipelinedWriter() {
+        if (pipelineDepth == 0) return null;
+        metrics.allocate(BufferRing.bytes(pipelineDepth, pipelineBufferSize));
+        return new PipelinedOutputStream(byteWriter, pipelineDepth, pipelineBufferSize);
+    }
+
+    private long pipelineBytes() {
+        return 2 * BufferRing.bytes(pipelineDepth, pipelineBufferSize);
+    }
+
+    private void recordStalls(PipelinedInputStream in, PipelinedOutputStream out) {
+        // The coder waits on both sides, each I/O stage only on the coder
+        if (in == null) return;
+        metrics.stall(CompressionMetrics.Stage.READ, in.readerStallNanos());
+        metrics.stall(CompressionMetrics.Stage.CODE, in.consumerStallNanos() + out.producerStallNanos());
+        metrics.stall(CompressionMetrics.Stage.WRITE, out.writerStallNanos());
+        metrics.release(pipelineBytes());
+    }
+
+    private static long encodeSynced(TableEncoder encoder, ByteBuffer buffer, int length, long position,
+                                     BitWriter writer, SyncIndex syncIndex) throws IOException {
+        // Cut the buffer at every interval boundary and record the bit offset where the interval starts
+        for (int offset=0 ; offset<length ; ) {
+            long intoInterval = position % syncIndex.interval;
+            if (intoInterval == 0) syncIndex.add(position, writer.bitCount());
+            int segment = (int) Math.min(length - offset, syncIndex.interval - intoInterval);
+            encoder.encode(buffer, offset, segment, writer);
+            offset += segment;
+            position += segment;
         }
+        return position;
+    }
 
-        return frequencyTable;
+    private int readLimit(byte[] readBuffer) {
+        // Whole words only, the short word can only come last, unless the buffer holds the whole file
+        return (readBuffer.length >= originalByteLength)? readBuffer.length : readBuffer.length / n * n;
     }
 
-    private HTNode buildHuffmanTree(Map<ByteWord, Integer> frequencyTable) {
-        ArrayList<HTNode> leaves = new ArrayList<>();
-        // Loop over the frequency table, and add everything to the leaves list
-        for (Map.Entry<ByteWord, Integer> character : frequencyTable.entrySet())
-            leaves.add(new HTNode(character.getKey(), character.getValue()));
-        // Create a priority queue of HTNodes to start the building process
-        PriorityQueue<HTNode> pq = new PriorityQueue<>(leaves);
-        // Start the building loop
-        while (pq.size() > 1) {
-            HTNode leftChild = pq.poll(), rightChild = pq.poll();
-            HTNode newNode = new HTNode(null, leftChild.frequency + rightChild.frequency);
-            newNode.setLeft(leftChild);
-            newNode.setRight(rightChild);
-            pq.add(newNode);
+    private int readBufferSize() {
+        return (int) Math.min(originalByteLength, (long) (IO_BUFFER_SIZE/n)*n); // Read the whole file or a multiple of n
+    }
+
+    private WordFrequencies getFrequencies() throws IOException {
+        if (pooledBuffers != null) {
+            // Batch jobs count on their own thread through their pooled buffer
+            FrequencyCounter counter = new FrequencyCounter(n);
+            byte[] readBuffer = pooledBuffers[0];
+            int readLength;
+            while ((readLength = byteReader.readNBytes(readBuffer, 0, readLimit(readBuffer))) != 0)
+                counter.add(readBuffer, 0, readLength);
+            return counter.finish();
         }
-        // Return the root of the final tree
-        return pq.poll();
+        // Count ranges of the file on all worker threads and merge their tables
+        return FrequencyCounter.count(byteReader.getChannel(), originalByteLength, n, threads, ioMode == IoMode.MAPPED);
     }
 
-    private void writeHeader(HTNode huffmanTree) throws IOException {
+    private void writeHeader(CodeTable table) throws IOException {
         // Write word size in the original file
         byteWriter.write(n);
         ByteBuffer bb = ByteBuffer.allocate(8);
         bb.putLong(originalByteLength);
         byteWriter.write(bb.array());
-        // Get the encoding of all characters (put it in a map)
-        BitVector init = new BitVector();
-        getAndWriteEncoding(huffmanTree, init);
+        // Every word (padded to n bytes) followed by the length of its code, in code order
+        for (int i=0 ; i<table.size() ; i++) {
+            if (dictionaryBuffer.remaining() < n+1) {
+                writeBuffered(dictionaryBuffer);
+            }
+            dictionaryBuffer.put(table.words, i * n, n).put(table.lengths[i]);
+        }
         if (dictionaryBuffer.remaining() < dictionaryBuffer.capacity()) {
-            byte[] dataChunk = new byte[dictionaryBuffer.position()];
-            dictionaryBuffer.rewind();
-            dictionaryBuffer.get(dataChunk);
-            byteWriter.write(dataChunk);
-            dictionaryBuffer.clear();
+            writeBuffered(dictionaryBuffer);
         }
     }
 
+    private void writeFormatHeader(byte format) throws IOException {
+        // Write the format marker, word size and original length
+        byteWriter.write(format);
+        byteWriter.write(n);
+        ByteBuffer bb = ByteBuffer.allocate(8);
+        bb.putLong(originalByteLength);
+        byteWriter.write(bb.array());
+    }
 
-    private void getAndWriteEncoding(HTNode node, BitVector currPath) throws IOException {
+    static CodeTable canonicalTable(WordFrequencies frequencyTable, int maxCodeLength) {
+        return CodeTable.canonical(frequencyTable, CodeLengths.huffman(frequencyTable.counts, frequencyTable.size), maxCodeLength);
+    }
 
-        if (node.left == null && node.right == null) {
-            codewords.put(node.character, currPath);
-            byte[] entry = new byte[n+1];
-            System.arraycopy(node.character.bytes(), 0, entry, 0, node.character.bytes().length);
-            entry[n] = (byte) currPath.getLength();
-            if (dictionaryBuffer.remaining() < n+1) {
-                byte[] dataChunk = new byte[dictionaryBuffer.position()];
-                dictionaryBuffer.rewind();
-                dictionaryBuffer.get(dataChunk);
-                byteWriter.write(dataChunk);
-                dictionaryBuffer.clear();
-            }
-            dictionaryBuffer.put(entry);
-            return;
+    private void fillCodewords(CodeTable table) {
+        // Fill the codewords map used by the bit buffer encoding loop
+        for (int i=0 ; i<table.size() ; i++) {
+            int wordLength = (i == table.tail)? (int) (originalByteLength % n) : n;
+            byte[] word = new byte[wordLength];
+            System.arraycopy(table.words, i * n, word, 0, wordLength);
+            BitVector code = new BitVector();
+            for (int bit=table.lengths[i]-1 ; bit>=0 ; bit--) code.append(((table.codes[i] >>> bit) & 1) == 1);
+            codewords.put(new ByteWord(word), code);
         }
-
-        BitVector leftPath = currPath.clone(), rightPath = currPath.clone();
-        leftPath.append(false);
-        rightPath.append(true);
-
-        getAndWriteEncoding(node.left, leftPath);
-        getAndWriteEncoding(node.right, rightPath);
     }
 
     public void decompress(String path) {
@@ -193,40 +544,286 @@ public class HuffmanCodeManager {
         try {
             decompressed.createNewFile();
         } catch (Exception e) {
-            System.out.println("Problem creating output file: " + e.getMessage());
+            console.println("Problem creating output file: " + e.getMessage());
         }
         // Read compressed file and write decompressed file
+        metrics = new CompressionMetrics("decompress", path, listener);
         try {
             // Prepare reader and writer
             byteReader = new FileInputStream(path);
             byteWriter = new FileOutputStream(decompressedPath);
-            // Read header
+            // Taken before decoding, stream files are read through a wrapper that closes the reader
+            metrics.bytesRead = byteReader.getChannel().size();
+            writeDecompressedFile(path, decompressedPath);
+            metrics.bytesWritten = byteWriter.getChannel().size();
+            metrics.finish();
+        } catch (Exception e) {
+            // The message goes to the console, the cause stays on the metrics and reaches the listener
+            console.println("Error while decompressing the file: " + e.getMessage());
+            metrics.fail(e);
+        } finally {
+            releaseBuffers();
+            closeIO();
+        }
+    }
+
+    private void writeDecompressedFile(String path, String decompressedPath) throws IOException {
+        // Read header
+        n = (byte) byteReader.read();
+        if (n == FORMAT_STREAM) {
+            // Streams are framed and carry no total length, read them back through the stream wrapper
+            byteReader.getChannel().position(0);
+            metrics.begin(CompressionMetrics.Phase.DECODE);
+            try (HuffmanInputStream in = new HuffmanInputStream(byteReader)) {
+                // The header bounds every frame, the buffers hold about a frame and its payload
+                long frameBuffers = 2L * in.frameSize();
+                holdBuffers(0, frameBuffers);
+                metrics.allocate(frameBuffers);
+                try {
+                    in.transferTo(byteWriter);
+                } finally {
+                    metrics.release(frameBuffers);
+                }
+            }
+            metrics.end();
+            return;
+        }
+        if (n == FORMAT_BLOCKS || n == FORMAT_INTERLEAVED) {
+            BlockCodec codec = blockCodec(n);
+            n = (byte) byteReader.read();
+            originalByteLength = ByteBuffer.wrap(byteReader.readNBytes(8)).getLong();
+            holdBuffers(0, codec.bufferBytes(originalByteLength));
+            metrics.begin(CompressionMetrics.Phase.DECODE);
+            metrics.allocate(codec.bufferBytes(originalByteLength));
+            try {
+                codec.decompress(byteReader.getChannel(), n, originalByteLength, byteWriter.getChannel());
+            } finally {
+                metrics.release(codec.bufferBytes(originalByteLength));
+            }
+            metrics.end();
+            return;
+        }
+        if (n == FORMAT_DICTIONARY) {
+            n = (byte) byteReader.read();
+            originalByteLength = ByteBuffer.wrap(byteReader.readNBytes(8)).getLong();
+            long id = ByteBuffer.wrap(byteReader.readNBytes(8)).getLong();
+            holdBuffers(2, pipelineBytes());
+            metrics.begin(CompressionMetrics.Phase.HEADER);
+            SharedDictionary shared = DICTIONARIES.get(dictionaryDirectory(path), id);
+            TableDecoder decoder = shared.decoder();
+            if (pooledBuffers != null) decoder.setBuffers(pooledBuffers[0], pooledBuffers[1]);
+            metrics.end();
+            metrics.distinctSymbols = shared.table.size();
+            metrics.maxCodeLength = shared.table.maxLength();
+            metrics.begin(CompressionMetrics.Phase.DECODE);
+            long decodeBuffers = IO_BUFFER_SIZE + 2L * TableDecoder.BUFFER_SIZE; // The reader's and the decoder's
+            metrics.allocate(decodeBuffers);
+            PipelinedInputStream pipedIn = pipelinedReader();
+            PipelinedOutputStream pipedOut = pipelinedWriter();
+            try (pipedIn; pipedOut) {
+                decoder.decode((pipedIn != null)? pipedIn : bufferedReader(), (pipedOut != null)? pipedOut : byteWriter, originalByteLength);
+            } finally {
+                recordStalls(pipedIn, pipedOut);
+                metrics.release(decodeBuffers);
+            }
+            metrics.end();
+            return;
+        }
+        if (n == FORMAT_CANONICAL || n == FORMAT_ESCAPED) {
+            // Canonical codes are always decoded through the lookup tables
+            byte format = n;
             n = (byte) byteReader.read();
             originalByteLength = ByteBuffer.wrap(byteReader.readNBytes(8)).getLong();
-            // Read and reconstruct the huffman tree used in encoding the file
-            byte[] firstEntry = byteReader.readNBytes(n+1);
-            byte[] firstWord = new byte[n];
-            System.arraycopy(firstEntry, 0, firstWord, 0, n);
-            RHTNode RHTRoot = new RHTNode();
-            reconstructHuffmanTree(firstWord, firstEntry[n], 0, RHTRoot, "");
-            assert RHTRoot.left != null && RHTRoot.right != null;
-            // Using the reconstructed tree, parse the compressed file and write the output file
+            decodeWithTable(format, decompressedPath);
+            return;
+        }
+        originalByteLength = ByteBuffer.wrap(byteReader.readNBytes(8)).getLong();
+        if (decoderType == DecoderType.TREE) holdBuffers(0, 2L * readBufferSize());
+        if (decoderType == DecoderType.TABLE) {
+            decodeWithTable(n, decompressedPath);
+            return;
+        }
+        if (originalByteLength == 0) return; // An empty file has no dictionary and nothing to decode
+        // Read and reconstruct the huffman tree used in encoding the file
+        metrics.begin(CompressionMetrics.Phase.HEADER);
+        byte[] firstEntry = byteReader.readNBytes(n+1);
+        byte[] firstWord = new byte[n];
+        System.arraycopy(firstEntry, 0, firstWord, 0, n);
+        RHTNode RHTRoot = new RHTNode();
+        reconstructHuffmanTree(firstWord, firstEntry[n], 0, RHTRoot, "");
+        assert RHTRoot.word != null || (RHTRoot.left != null && RHTRoot.right != null);
+        metrics.end();
+        // Using the reconstructed tree, parse the compressed file and write the output file
+        metrics.begin(CompressionMetrics.Phase.DECODE);
+        long treeBuffers = 2L * readBufferSize(); // Taken before decoding counts originalByteLength down
+        metrics.allocate(treeBuffers);
+        try {
             writeDecompressedData(RHTRoot);
-            assert originalByteLength == 0;
-        } catch (Exception e) {
-            System.out.println("Error while decompressing the file: " + e.getMessage());
-            e.printStackTrace();
         } finally {
-            closeIO();
+            metrics.release(treeBuffers);
+        }
+        metrics.end();
+        assert originalByteLength == 0;
+    }
+
+    private static CodeTable readTable(InputStream in, byte format, byte n, long originalLength) throws IOException {
+        if (format == FORMAT_CANONICAL) return CodeTable.readCanonical(in, n, originalLength);
+        if (format == FORMAT_ESCAPED) return CodeTable.readEscaped(in, n);
+        return CodeTable.readLegacy(in, n, originalLength);
+    }
+
+    private InputStream bufferedReader() {
+        // The decoder reads whole buffers past the table, pooled jobs only need a small buffer for the table
+        return (pooledBuffers != null)? new BufferedInputStream(byteReader) : new BufferedInputStream(byteReader, IO_BUFFER_SIZE);
+    }
+
+    private void holdBuffers(int count, long reserved) throws IOException {
+        // A pooled job takes its buffers and any memory its codec allocates itself in one go
+        if (bufferPool == null) return;
+        try {
+            pooledBuffers = bufferPool.acquire(count, reserved);
+            reservedBytes = reserved;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for buffers");
+        }
+    }
+
+    private void releaseBuffers() {
+        if (pooledBuffers == null) return;
+        bufferPool.release(pooledBuffers, reservedBytes);
+        pooledBuffers = null;
+        reservedBytes = 0;
+    }
+
+    private String dictionaryDirectory(String compressedPath) {
+        return (dictionaryDirectory != null)? dictionaryDirectory : new File(compressedPath).getAbsoluteFile().getParent();
+    }
+
+    private void decodeWithTable(byte format, String decompressedPath) throws IOException {
+        // Read the dictionary as a code table and decode the rest through the lookup tables
+        holdBuffers(2, (ioMode == IoMode.MAPPED)? 0 : pipelineBytes());
+        if (ioMode == IoMode.MAPPED) {
+            // Map the rest of the compressed file, and an output region sized from the original length
+            FileChannel input = byteReader.getChannel();
+            try (FileChannel output = FileChannel.open(Path.of(decompressedPath), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                InputStream in = new MappedInputStream(input, input.position(), input.size());
+                decodeTable(in, new MappedOutputStream(output, 0, originalByteLength), format);
+            }
+            return;
+        }
+        PipelinedInputStream pipedIn = pipelinedReader();
+        PipelinedOutputStream pipedOut = pipelinedWriter();
+        metrics.allocate(IO_BUFFER_SIZE);
+        try (pipedIn; pipedOut) {
+            decodeTable((pipedIn != null)? pipedIn : bufferedReader(), (pipedOut != null)? pipedOut : byteWriter, format);
+        } finally {
+            recordStalls(pipedIn, pipedOut);
+            metrics.release(IO_BUFFER_SIZE);
         }
     }
 
+    private void decodeTable(InputStream in, OutputStream out, byte format) throws IOException {
+        // Times the table as the header phase and the rest as the decode phase
+        metrics.begin(CompressionMetrics.Phase.HEADER);
+        CodeTable table = readTable(in, format, n, originalByteLength);
+        TableDecoder decoder = new TableDecoder(table);
+        if (pooledBuffers != null) decoder.setBuffers(pooledBuffers[0], pooledBuffers[1]);
+        metrics.end();
+        metrics.distinctSymbols = table.size();
+        metrics.maxCodeLength = table.maxLength();
+        metrics.begin(CompressionMetrics.Phase.DECODE);
+        metrics.allocate(2L * TableDecoder.BUFFER_SIZE); // The decoder's input and output buffers
+        try {
+            decoder.decode(in, out, originalByteLength);
+        } finally {
+            metrics.release(2L * TableDecoder.BUFFER_SIZE);
+        }
+        metrics.end();
+    }
+
+    private BlockCodec blockCodec(byte format) {
+        // Interleaved containers store their own stream count, the codec only has to know to read it
+        return new BlockCodec(threads, blockSize, maxCodeLength, (format == FORMAT_INTERLEAVED)? BlockCodec.MAX_STREAMS : 1);
+    }
+
+    public byte[] decompressRange(String path, long offset, int length) throws IOException {
+        // Decode only from the closest sync point (or block) before offset up to the end of the range
+        try (FileInputStream in = new FileInputStream(path)) {
+            FileChannel channel = in.getChannel();
+            byte format = (byte) in.read(), wordSize = format;
+            if (format == FORMAT_STREAM)
+                throw new IOException("Streams have no index to read a range from");
+            if (format == FORMAT_BLOCKS || format == FORMAT_INTERLEAVED || format == FORMAT_CANONICAL || format == FORMAT_DICTIONARY || format == FORMAT_ESCAPED)
+                wordSize = (byte) in.read();
+            long originalLength = ByteBuffer.wrap(in.readNBytes(8)).getLong();
+            if (offset < 0 || length < 0 || offset + length > originalLength)
+                throw new IndexOutOfBoundsException("Range " + offset + "+" + length + " is outside the original " + originalLength + " bytes");
+            if (format == FORMAT_BLOCKS || format == FORMAT_INTERLEAVED)
+                return blockCodec(format).decompressRange(channel, wordSize, originalLength, offset, length);
+
+            // Without a sidecar index decoding starts at the beginning of the payload, right after the table
+            TableDecoder decoder;
+            long payloadOffset;
+            if (format == FORMAT_DICTIONARY) {
+                decoder = DICTIONARIES.get(dictionaryDirectory(path), ByteBuffer.wrap(in.readNBytes(8)).getLong()).decoder();
+                payloadOffset = 18;
+            } else {
+                InputStream header = new BufferedInputStream(in);
+                CodeTable table = readTable(header, format, wordSize, originalLength);
+                decoder = new TableDecoder(table);
+                payloadOffset = (format == FORMAT_CANONICAL || format == FORMAT_ESCAPED)?
+                        10 + table.canonicalLength() : 9 + (long) table.size() * (wordSize + 1);
+                if (format == FORMAT_ESCAPED) payloadOffset += 4;
+            }
+            long syncOriginal = 0, syncBit = 0;
+            File indexFile = new File(path + SyncIndex.EXTENSION);
+            if (indexFile.exists()) {
+                SyncIndex index = SyncIndex.read(indexFile.getPath());
+                payloadOffset = index.payloadOffset;
+                if (index.size > 0) {
+                    int point = index.find(offset);
+                    syncOriginal = index.originalOffsets[point];
+                    syncBit = index.bitOffsets[point];
+                }
+            }
+            channel.position(payloadOffset + syncBit / 8);
+            byte[] range = new byte[length];
+            long start = syncOriginal;
+            OutputStream slice = new OutputStream() {
+                private long position = start;
+
+                @Override
+                public void write(int b) {
+                    write(new byte[] {(byte) b}, 0, 1);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) {
+                    // Keep only the decoded bytes inside the range
+                    long from = Math.max(position, offset), to = Math.min(position + len, offset + length);
+                    if (from < to) System.arraycopy(b, off + (int) (from - position), range, (int) (from - offset), (int) (to - from));
+                    position += len;
+                }
+            };
+            decoder.decode(in, slice, offset + length - syncOriginal, (int) (syncBit % 8));
+            return range;
+        }
+    }
+
+    private void writeBuffered(ByteBuffer buffer) throws IOException {
+        // Write what was put in the heap buffer straight from its backing array, then reuse it
+        byteWriter.write(buffer.array(), 0, buffer.position());
+        buffer.clear();
+    }
+
     private void closeIO() {
+        // Either may be missing when opening the files failed
         try {
-            byteReader.close();
-            byteWriter.close();
+            if (byteReader != null) byteReader.close();
+            if (byteWriter != null) byteWriter.close();
         } catch (IOException ex) {
-            System.out.println("IO Error in closing the reader and writer.");
+            console.println("IO Error in closing the reader and writer.");
         }
     }
 
@@ -248,58 +845,125 @@ public class HuffmanCodeManager {
     }
 
     private void writeDecompressedData(RHTNode RHTRoot) throws IOException {
-        int readBufferSize = (int) Math.min(originalByteLength, (long) (MAX_BUFFER_SIZE/n)*n); // Read the whole file or a multiple of n
+        int readBufferSize = readBufferSize();
         byte[] readBuffer;
-        ByteBuffer writeBuffer = ByteBuffer.allocate((int) Math.min(originalByteLength, (long) (MAX_BUFFER_SIZE/n)*n));
-        RHTNode pointer;
-        while (originalByteLength != 0) {
-            readBuffer = byteReader.readNBytes(readBufferSize);
-            pointer = RHTRoot;
+        ByteBuffer writeBuffer = ByteBuffer.allocate(readBufferSize);
+        // A file of one distinct word has an empty code, there are no bits to walk
+        if (RHTRoot.word != null) {
+            while (originalByteLength > 0) originalByteLength -= writeWord(RHTRoot.word, writeBuffer);
+            if (writeBuffer.position() > 0) writeBuffered(writeBuffer);
+            return;
+        }
+        // Codes can span buffers, so the pointer only goes back to the root after a word
+        RHTNode pointer = RHTRoot;
+        while (originalByteLength > 0 && (readBuffer = byteReader.readNBytes(readBufferSize)).length > 0) {
             for (byte b : readBuffer) {
                 for (int bitIndex = 7; bitIndex > -1; bitIndex--) {
-                    if (pointer.word != null) {
-                        if (originalByteLength >= n) {
-                            if (writeBuffer.remaining() < n) {
-                                byte[] data = new byte[writeBuffer.position()];
-                                writeBuffer.rewind();
-                                writeBuffer.get(data);
-                                byteWriter.write(data);
-                                writeBuffer.clear();
-                            }
-                            writeBuffer.put(pointer.word);
-                            pointer = RHTRoot;
-                            originalByteLength -= n;
-                        } else {
-                            if (originalByteLength > 0){
-                                byte[] lastWord = new byte[(int)originalByteLength];
-                                System.arraycopy(pointer.word, 0, lastWord, 0, lastWord.length);
-                                if (writeBuffer.remaining() < writeBuffer.capacity()) {
-                                    byte[] data = new byte[writeBuffer.position()];
-                                    writeBuffer.rewind();
-                                    writeBuffer.get(data);
-                                    byteWriter.write(data);
-                                    writeBuffer.clear();
-                                }
-                                byteWriter.write(lastWord);
-                                originalByteLength -= lastWord.length;
-                            }
-                            return;
-                        }
-                    }
+                    pointer = ((b & (1<<bitIndex)) == 0)? pointer.left : pointer.right;
+                    if (pointer.word == null) continue;
+                    // Check for the leaf right after the bit that reached it, the last code can end on the last bit
+                    originalByteLength -= writeWord(pointer.word, writeBuffer);
                     if (originalByteLength <= 0) {
-                        if (writeBuffer.remaining() < writeBuffer.capacity()) {
-                            byte[] data = new byte[writeBuffer.position()];
-                            writeBuffer.rewind();
-                            writeBuffer.get(data);
-                            byteWriter.write(data);
-                            writeBuffer.clear();
-                        }
+                        if (writeBuffer.position() > 0) writeBuffered(writeBuffer);
                         return;
                     }
-                    pointer = ((b & (1<<bitIndex)) == 0)? pointer.left : pointer.right;
+                    pointer = RHTRoot;
                 }
             }
         }
+        if (writeBuffer.position() > 0) writeBuffered(writeBuffer);
+    }
+
+    private int writeWord(byte[] word, ByteBuffer writeBuffer) throws IOException {
+        // Whole words go through the buffer, the short last word is written after it
+        if (originalByteLength >= n) {
+            if (writeBuffer.remaining() < n) writeBuffered(writeBuffer);
+            writeBuffer.put(word);
+            return n;
+        }
+        if (writeBuffer.position() > 0) writeBuffered(writeBuffer);
+        byteWriter.write(word, 0, (int) originalByteLength);
+        return (int) originalByteLength;
+    }
+
+    void applyOption(String option) {
+        // Options are given after the positional arguments as name or name:value
+        String[] parts = option.split(":", 2);
+        switch (parts[0]) {
+            case "tree" -> setDecoderType(DecoderType.TREE);
+            case "table" -> setDecoderType(DecoderType.TABLE);
+            case "bitbuffer" -> setEncoderType(EncoderType.BIT_BUFFER);
+            case "accumulator" -> setEncoderType(EncoderType.ACCUMULATOR);
+            case "legacy" -> setHeaderFormat(HeaderFormat.LEGACY);
+            case "canonical" -> {
+                setHeaderFormat(HeaderFormat.CANONICAL);
+                if (parts.length > 1) setMaxCodeLength(Integer.parseInt(parts[1]));
+            }
+            case "blocks" -> {
+                setHeaderFormat(HeaderFormat.BLOCKS);
+                if (parts.length > 1) setBlockSize(Integer.parseInt(parts[1]));
+            }
+            case "singlepass" -> setSinglePass(true);
+            case "pipeline" -> {
+                // pipeline[:depth[:buffer KB]]
+                String[] values = (parts.length > 1)? parts[1].split(":") : new String[0];
+                setPipeline((values.length > 0)? Integer.parseInt(values[0]) : BufferRing.DEFAULT_DEPTH,
+                        (values.length > 1)? Integer.parseInt(values[1]) * 1024 : BufferRing.DEFAULT_BUFFER_SIZE);
+            }
+            case "interleaved" -> {
+                setHeaderFormat(HeaderFormat.BLOCKS);
+                setStreams((parts.length > 1)? Integer.parseInt(parts[1]) : DEFAULT_STREAMS);
+            }
+            case "mmap" -> setIoMode(IoMode.MAPPED);
+            case "threads" -> setThreads(Integer.parseInt(parts[1]));
+            case "sync" -> setSyncInterval(Long.parseLong(parts[1]));
+            case "dict" -> {
+                try {
+                    setDictionary(SharedDictionary.read(parts[1]));
+                } catch (IOException e) {
+                    throw new IllegalArgumentException("Can't read dictionary " + parts[1] + ": " + e.getMessage());
+                }
+            }
+            case "dicts" -> setDictionaryDirectory(parts[1]);
+            case "topk" -> setAlphabetLimit(Integer.parseInt(parts[1]));
+            case "metrics" -> setListener(new CompressionListener() {
+                @Override
+                public void finished(CompressionMetrics metrics) {
+                    console.println(metrics);
+                }
+            });
+            default -> throw new IllegalArgumentException("Unknown option: " + option);
+        }
+    }
+
+    private static byte parseWordSize(String wordSize) {
+        return wordSize.equals("auto")? AUTO_WORD_SIZE : Byte.parseByte(wordSize);
+    }
+
+    // c <path> <n> [options]
+    static void compressCommand(HuffmanCodeManager manager, String[] args, PrintStream out) {
+        manager.setConsole(out);
+        for (int i=3 ; i<args.length ; i++) manager.applyOption(args[i]);
+        long start = System.currentTimeMillis();
+        String outPath = manager.compress(args[1], parseWordSize(args[2]));
+        long end = System.currentTimeMillis();
+        if (manager.getWordSizeEstimates() != null) {
+            for (WordSizeEstimator.Estimate estimate : manager.getWordSizeEstimates()) out.println("Estimate " + estimate);
+            out.println("Chosen word size: " + manager.getWordSize());
+        }
+        out.println("Compression time: " + (end-start) + "ms = " + (float)(end-start)/1000 + "s");
+        File input = new File(args[1]), output = new File(outPath);
+        out.println("Compression ratio: " + ((float)output.length()/input.length())*100 + "%");
+    }
+
+    // d <path> [options]
+    static void decompressCommand(HuffmanCodeManager manager, String[] args, PrintStream out) {
+        manager.setConsole(out);
+        for (int i=2 ; i<args.length ; i++) manager.applyOption(args[i]);
+        long start = System.currentTimeMillis();
+        manager.decompress(args[1]);
+        long end = System.currentTimeMillis();
+        out.println("Decompression time: " + (end-start) + "ms = " + (float)(end-start)/1000 + "s");
     }
 
     public static void main(String[] args) {
@@ -307,17 +971,100 @@ public class HuffmanCodeManager {
         // and that I worked on this assignment independently without any unauthorized help.
         HuffmanCodeManager manager = new HuffmanCodeManager();
         if (args[0].equals("c")) {
-            long start = System.currentTimeMillis();
-            String outPath = manager.compress(args[1], Byte.parseByte(args[2]));
-            long end = System.currentTimeMillis();
-            System.out.println("Compression time: " + (end-start) + "ms = " + (float)(end-start)/1000 + "s");
-            File input = new File(args[1]), output = new File(outPath);
-            System.out.println("Compression ratio: " + ((float)output.length()/input.length())*100 + "%");
+            compressCommand(manager, args, System.out);
+        } else if (args[0].equals("cs") || args[0].equals("ds")) {
+            // Stream modes read stdin and write stdout, so nothing else may be printed
+            try {
+                if (args[0].equals("cs")) {
+                    int frameSize = (args.length > 2)? Integer.parseInt(args[2]) : HuffmanOutputStream.DEFAULT_FRAME_SIZE;
+                    try (OutputStream out = new HuffmanOutputStream(System.out, Byte.parseByte(args[1]), frameSize, DEFAULT_MAX_CODE_LENGTH)) {
+                        System.in.transferTo(out);
+                    }
+                } else {
+                    try (InputStream in = new HuffmanInputStream(System.in)) {
+                        in.transferTo(System.out);
+                    }
+                    System.out.flush();
+                }
+            } catch (IOException e) {
+                System.err.println("Stream error: " + e.getMessage());
+                System.exit(1);
+            }
         } else if (args[0].equals("d")) {
-            long start = System.currentTimeMillis();
-            manager.decompress(args[1]);
-            long end = System.currentTimeMillis();
-            System.out.println("Decompression time: " + (end-start) + "ms = " + (float)(end-start)/1000 + "s");
+            decompressCommand(manager, args, System.out);
+        } else if (args[0].equals("daemon")) {
+            // Serve c and d requests from HuffmanClient: daemon [<socket path> | <port>] [memory:<MB>]
+            long memoryCap = BatchCompressor.DEFAULT_MEMORY_CAP;
+            String address = null;
+            for (int i=1 ; i<args.length ; i++) {
+                if (args[i].startsWith("memory:")) memoryCap = Long.parseLong(args[i].substring(7)) << 20;
+                else address = args[i];
+            }
+            try {
+                new HuffmanDaemon(memoryCap).serve(HuffmanClient.address(address));
+            } catch (IOException e) {
+                System.out.println("Daemon error: " + e.getMessage());
+                System.exit(1);
+            }
+        } else if (args[0].equals("bc") || args[0].equals("bd")) {
+            // Batch mode over a directory tree: bc <dir> <n> [options] or bd <dir> [options]. memory:<MB> caps the pooled
+            // buffers and the reservations jobs wait for, frequency and lookup tables are allocated outside the cap
+            boolean compress = args[0].equals("bc");
+            long memoryCap = BatchCompressor.DEFAULT_MEMORY_CAP;
+            List<String> options = new ArrayList<>();
+            for (int i=compress? 3 : 2 ; i<args.length ; i++) {
+                if (args[i].startsWith("memory:")) memoryCap = Long.parseLong(args[i].substring(7)) << 20;
+                else options.add(args[i]);
+            }
+            // Canonical headers by default, they are smaller than the legacy one and always decode through the tables,
+            // "legacy" or "blocks" in the options switch them
+            BatchCompressor batch = new BatchCompressor(memoryCap, job -> {
+                job.setHeaderFormat(HeaderFormat.CANONICAL);
+                for (String option : options) job.applyOption(option);
+            });
+            try {
+                long start = System.currentTimeMillis();
+                List<BatchCompressor.FileResult> results = compress? batch.compress(Path.of(args[1]), parseWordSize(args[2])) : batch.decompress(Path.of(args[1]));
+                BatchCompressor.printSummary(results, System.out);
+                System.out.println("Batch time: " + (System.currentTimeMillis() - start) + "ms");
+            } catch (IOException e) {
+                System.out.println("Error while walking " + args[1] + ": " + e.getMessage());
+            }
+        } else if (args[0].equals("t")) {
+            // Train a dictionary for n-byte words from sample files: t <n> <dictionary directory> <samples...>
+            try {
+                SharedDictionary trained = SharedDictionary.train(Byte.parseByte(args[1]), Arrays.asList(args).subList(3, args.length), DEFAULT_MAX_CODE_LENGTH);
+                System.out.println("Dictionary " + trained.idString() + " written to " + trained.write(args[2]));
+            } catch (IOException e) {
+                System.out.println("Error while training the dictionary: " + e.getMessage());
+            }
+        } else if (args[0].equals("r")) {
+            // Write original bytes [offset, offset + length) to stdout
+            for (int i=4 ; i<args.length ; i++) manager.applyOption(args[i]);
+            try {
+                System.out.write(manager.decompressRange(args[1], Long.parseLong(args[2]), Integer.parseInt(args[3])));
+                System.out.flush();
+            } catch (IOException e) {
+                System.err.println("Error while reading the range: " + e.getMessage());
+                System.exit(1);
+            }
+        } else if (args[0].equals("b")) {
+            // Compare the two-pass mode (with the given options) against the single-pass mode, best of 3 runs
+            File input = new File(args[1]);
+            for (boolean singlePass : new boolean[] {false, true}) {
+                long best = Long.MAX_VALUE, outputLength = 0;
+                for (int run=0 ; run<3 ; run++) {
+                    HuffmanCodeManager runManager = new HuffmanCodeManager();
+                    for (int i=3 ; i<args.length ; i++) runManager.applyOption(args[i]);
+                    runManager.setSinglePass(singlePass);
+                    long start = System.nanoTime();
+                    String outPath = runManager.compress(args[1], parseWordSize(args[2]));
+                    best = Math.min(best, System.nanoTime() - start);
+                    outputLength = new File(outPath).length();
+                }
+                System.out.println((singlePass? "Single-pass" : "Two-pass") + ": ratio " + ((float)outputLength/input.length())*100
+                        + "%, " + (input.length() / 1048576.0) / (best / 1e9) + " MB/s");
+            }
         }
     }
 }
@@ -0,0 +1,141 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class HuffmanDaemon {
+    private static final int WARM_UP_SIZE = 4 << 20; // 4 MB
+
+    // One resident JVM for many c and d requests, so they run on compiled loops instead of paying for startup
+    // and warm-up every time. Every connection carries one request (see HuffmanClient.send) and runs as a job on
+    // its own virtual thread with its own HuffmanCodeManager. Jobs take their buffers from one pool, capped like
+    // a batch, which stays allocated between requests.
+    private final BufferPool pool;
+    private volatile ServerSocketChannel server;
+
+    public HuffmanDaemon(long memoryCap) {
+        pool = new BufferPool(memoryCap, TableDecoder.BUFFER_SIZE);
+    }
+
+    public void serve(SocketAddress address) throws IOException {
+        Path socket = (address instanceof UnixDomainSocketAddress unix)? unix.getPath() : null;
+        if (socket != null) claim(socket);
+        try (ServerSocketChannel server = ServerSocketChannel.open((socket != null)? StandardProtocolFamily.UNIX : StandardProtocolFamily.INET);
+             ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            server.bind(address);
+            this.server = server;
+            warmUp();
+            System.out.println("Listening on " + address);
+            while (true) {
+                SocketChannel client;
+                try {
+                    client = server.accept();
+                } catch (ClosedChannelException e) {
+                    break; // Stopped, the executor waits for the jobs still running
+                }
+                executor.submit(() -> handle(client));
+            }
+        } finally {
+            if (socket != null) Files.deleteIfExists(socket);
+        }
+    }
+
+    private static void claim(Path socket) throws IOException {
+        // A socket file nobody answers on is left from a daemon that didn't stop cleanly
+        if (!Files.exists(socket)) return;
+        boolean answered;
+        try {
+            SocketChannel.open(UnixDomainSocketAddress.of(socket)).close();
+            answered = true;
+        } catch (IOException e) {
+            answered = false;
+        }
+        if (answered) throw new IOException("A daemon is already listening on " + socket);
+        Files.delete(socket);
+    }
+
+    public void stop() throws IOException {
+        if (server != null) server.close();
+    }
+
+    private void handle(SocketChannel client) {
+        try (client) {
+            DataInputStream request = new DataInputStream(new BufferedInputStream(Channels.newInputStream(client)));
+            String[] args = new String[request.readInt()];
+            for (int i=0 ; i<args.length ; i++) args[i] = request.readUTF();
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            int status = run(args, new PrintStream(output, true, StandardCharsets.UTF_8));
+            DataOutputStream response = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(client)));
+            response.writeInt(status);
+            response.writeInt(output.size());
+            output.writeTo(response);
+            response.flush();
+        } catch (EOFException e) {
+            // Closed without a request, like the probe of a daemon checking whether this one runs
+        } catch (IOException e) {
+            System.out.println("Request failed: " + e.getMessage());
+        }
+    }
+
+    int run(String[] args, PrintStream out) {
+        // Same commands and output as HuffmanCodeManager.main, status 0 on success, 1 if the job failed, 2 for usage
+        try {
+            if (args.length == 1 && args[0].equals("stop")) {
+                stop();
+                out.println("Daemon stopped");
+                return 0;
+            }
+            boolean compress = args.length >= 3 && args[0].equals("c"), decompress = args.length >= 2 && args[0].equals("d");
+            if (!compress && !decompress) {
+                out.println("Usage: c <path> <n> [options] | d <path> [options] | stop");
+                return 2;
+            }
+            HuffmanCodeManager manager = new HuffmanCodeManager();
+            manager.setBufferPool(pool);
+            if (compress) HuffmanCodeManager.compressCommand(manager, args, out);
+            else HuffmanCodeManager.decompressCommand(manager, args, out);
+            return (manager.getMetrics() == null || manager.getMetrics().error() != null)? 1 : 0;
+        } catch (IOException | RuntimeException e) {
+            out.println("Error: " + e.getMessage());
+            return 1;
+        }
+    }
+
+    static void warmUp() throws IOException {
+        // Counts, builds tables, encodes and decodes generated text a few times, so the first requests
+        // already run compiled code
+        byte[] data = new byte[WARM_UP_SIZE], decoded = new byte[WARM_UP_SIZE];
+        Random random = new Random(20010545);
+        for (int i=0 ; i<data.length ; i++) data[i] = (byte) ('a' + Math.min((int) Math.abs(random.nextGaussian() * 6), 25));
+        for (byte n=1 ; n<=2 ; n++) {
+            for (int round=0 ; round<3 ; round++) {
+                FrequencyCounter counter = new FrequencyCounter(n);
+                counter.add(data, 0, data.length);
+                CodeTable table = HuffmanCodeManager.canonicalTable(counter.finish(), HuffmanCodeManager.DEFAULT_MAX_CODE_LENGTH);
+                ByteArrayOutputStream encoded = new ByteArrayOutputStream(data.length);
+                BitWriter writer = new BitWriter(encoded, TableDecoder.BUFFER_SIZE);
+                new TableEncoder(table).encode(data, 0, data.length, writer);
+                writer.finish();
+                byte[] payload = encoded.toByteArray();
+                new TableDecoder(table).decode(payload, 0, payload.length, decoded, 0, data.length);
+            }
+        }
+    }
+}
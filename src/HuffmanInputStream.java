@@ -0,0 +1,83 @@
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+public class HuffmanInputStream extends InputStream {
+    private final DataInputStream in;
+    private final byte n;
+    private final int frameSize;
+    private byte[] compressed = new byte[0], frame = new byte[0];
+    private int position, frameLength;
+    private boolean finished;
+
+    public HuffmanInputStream(InputStream in) throws IOException {
+        this.in = new DataInputStream(new BufferedInputStream(in));
+        if (this.in.readByte() != HuffmanCodeManager.FORMAT_STREAM)
+            throw new IOException("Not a Huffman stream");
+        n = this.in.readByte();
+        frameSize = this.in.readInt();
+        if (n < 1 || frameSize < 1 || frameSize > HuffmanOutputStream.MAX_FRAME_SIZE)
+            throw new IOException("Corrupt stream header");
+    }
+
+    public int frameSize() {
+        // No frame holds more original bytes than this, so the buffers never grow past it
+        return frameSize;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (position == frameLength && !readFrame()) return -1;
+        return frame[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) return 0;
+        if (position == frameLength && !readFrame()) return -1;
+        int chunk = Math.min(len, frameLength - position);
+        System.arraycopy(frame, position, b, off, chunk);
+        position += chunk;
+        return chunk;
+    }
+
+    @Override
+    public int available() {
+        return frameLength - position;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private boolean readFrame() throws IOException {
+        if (finished) return false;
+        int length = in.readInt();
+        if (length == 0) {
+            finished = true;
+            return false;
+        }
+        int payloadLength = in.readInt();
+        if (length < 0 || length > frameSize || payloadLength < 0)
+            throw new IOException("Corrupt frame header");
+        CodeTable table = CodeTable.readCanonical(in, n, length);
+        // The payload can't be longer than every word taking the longest code
+        if (payloadLength > ((long) (length + n - 1) / n * table.maxLength() + 7) / 8)
+            throw new IOException("Corrupt frame header");
+        // Frame buffers only grow up to the largest frame seen
+        if (compressed.length < payloadLength) compressed = new byte[payloadLength];
+        if (frame.length < length) frame = new byte[length];
+        try {
+            in.readFully(compressed, 0, payloadLength);
+        } catch (EOFException e) {
+            throw new EOFException("Stream ended inside a frame");
+        }
+        new TableDecoder(table).decode(compressed, 0, payloadLength, frame, 0, length);
+        position = 0;
+        frameLength = length;
+        return true;
+    }
+}
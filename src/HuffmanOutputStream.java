@@ -0,0 +1,91 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+public class HuffmanOutputStream extends OutputStream {
+    public static final int DEFAULT_FRAME_SIZE = 1 << 20; // 1 MB
+    public static final int MAX_FRAME_SIZE = 64 << 20; // Readers refuse larger frames before allocating for them
+
+    // Stream layout: marker, n and the frame size (4), then frames of original length (4), payload length (4), the frame's
+    // canonical table and the payload. A frame with original length 0 ends the stream, so the total
+    // length never has to be known. Memory stays around two frames no matter how long the stream is.
+    private final DataOutputStream out;
+    private final byte n;
+    private final int maxCodeLength;
+    private final byte[] frame;
+    private final ByteArrayOutputStream payload;
+    private int frameLength;
+    private boolean closed;
+
+    public HuffmanOutputStream(OutputStream out, byte n) throws IOException {
+        this(out, n, DEFAULT_FRAME_SIZE, HuffmanCodeManager.DEFAULT_MAX_CODE_LENGTH);
+    }
+
+    public HuffmanOutputStream(OutputStream out, byte n, int frameSize, int maxCodeLength) throws IOException {
+        if (n < 1)
+            throw new IllegalArgumentException("Word size must be positive");
+        if (frameSize < 1 || frameSize > MAX_FRAME_SIZE)
+            throw new IllegalArgumentException("Frame size must be between 1 and " + MAX_FRAME_SIZE + " bytes");
+        this.out = new DataOutputStream(out);
+        this.n = n;
+        this.maxCodeLength = maxCodeLength;
+        frame = new byte[Math.max(frameSize / n, 1) * n]; // Frames hold whole words except for the last one
+        payload = new ByteArrayOutputStream(frame.length / 2 + 64);
+        this.out.writeByte(HuffmanCodeManager.FORMAT_STREAM);
+        this.out.writeByte(n);
+        this.out.writeInt(frame.length);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (frameLength == frame.length) writeFrame(frameLength);
+        frame[frameLength++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (frameLength == frame.length) writeFrame(frameLength);
+            int chunk = Math.min(len, frame.length - frameLength);
+            System.arraycopy(b, off, frame, frameLength, chunk);
+            frameLength += chunk;
+            off += chunk;
+            len -= chunk;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        // Whole words are written out as a frame, an incomplete word waits for the next one
+        int length = frameLength / n * n;
+        if (length > 0) writeFrame(length);
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        if (frameLength > 0) writeFrame(frameLength);
+        out.writeInt(0);
+        out.close();
+    }
+
+    private void writeFrame(int length) throws IOException {
+        FrequencyCounter counter = new FrequencyCounter(n);
+        counter.add(frame, 0, length);
+        CodeTable table = HuffmanCodeManager.canonicalTable(counter.finish(), maxCodeLength);
+        payload.reset();
+        BitWriter writer = new BitWriter(payload, 1 << 16);
+        new TableEncoder(table).encode(frame, 0, length, writer);
+        writer.finish();
+        out.writeInt(length);
+        out.writeInt(payload.size());
+        table.writeCanonical(out);
+        payload.writeTo(out);
+        // Keep the bytes that didn't make it into the frame
+        System.arraycopy(frame, length, frame, 0, frameLength - length);
+        frameLength -= length;
+    }
+}
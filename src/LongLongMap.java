@@ -0,0 +1,94 @@
+import java.util.Arrays;
+
+public class LongLongMap {
+    private static final int MIN_CAPACITY = 1024;
+
+    // Open addressing with linear probing, 0 marks a free slot so the 0 key is kept aside
+    private long[] keys, values;
+    private int mask, size, resizeAt;
+    private boolean hasZeroKey;
+    private long zeroValue;
+
+    public LongLongMap() {
+        this(MIN_CAPACITY);
+    }
+
+    public LongLongMap(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity < 2L * expectedSize) capacity <<= 1;
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new long[capacity];
+        mask = capacity - 1;
+        resizeAt = capacity / 2;
+    }
+
+    private int slot(long key) {
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+    }
+
+    public void add(long key, long delta) {
+        if (key == 0) {
+            if (!hasZeroKey) size++;
+            hasZeroKey = true;
+            zeroValue += delta;
+            return;
+        }
+        int i = slot(key);
+        while (keys[i] != 0) {
+            if (keys[i] == key) {
+                values[i] += delta;
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        values[i] = delta;
+        if (++size > resizeAt) rehash();
+    }
+
+    public void addAll(LongLongMap other) {
+        if (other.hasZeroKey) add(0, other.zeroValue);
+        for (int i=0 ; i<other.keys.length ; i++)
+            if (other.keys[i] != 0) add(other.keys[i], other.values[i]);
+    }
+
+    public long get(long key) {
+        if (key == 0) return zeroValue;
+        int i = slot(key);
+        while (keys[i] != 0) {
+            if (keys[i] == key) return values[i];
+            i = (i + 1) & mask;
+        }
+        return 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long[] sortedKeys() {
+        long[] ret = new long[size];
+        int j = 0;
+        if (hasZeroKey) ret[j++] = 0;
+        for (long key : keys)
+            if (key != 0) ret[j++] = key;
+        Arrays.sort(ret);
+        return ret;
+    }
+
+    private void rehash() {
+        long[] oldKeys = keys, oldValues = values;
+        allocate(keys.length * 2);
+        for (int j=0 ; j<oldKeys.length ; j++) {
+            if (oldKeys[j] == 0) continue;
+            int i = slot(oldKeys[j]);
+            while (keys[i] != 0) i = (i + 1) & mask;
+            keys[i] = oldKeys[j];
+            values[i] = oldValues[j];
+        }
+    }
+}
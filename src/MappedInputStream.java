@@ -0,0 +1,53 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+public class MappedInputStream extends InputStream {
+    public static final long WINDOW_SIZE = 1L << 30; // 1 GB, a single mapping can't exceed 2 GB
+
+    // Reads a region of a file through memory-mapped windows instead of read calls
+    private final FileChannel channel;
+    private final long end;
+    private long position;
+    private ByteBuffer window = ByteBuffer.allocate(0);
+
+    public MappedInputStream(FileChannel channel, long position, long end) {
+        this.channel = channel;
+        this.position = position;
+        this.end = end;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!window.hasRemaining() && !nextWindow()) return -1;
+        return window.get() & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) return 0;
+        if (!window.hasRemaining() && !nextWindow()) return -1;
+        int chunk = Math.min(len, window.remaining());
+        window.get(b, off, chunk);
+        return chunk;
+    }
+
+    private boolean nextWindow() throws IOException {
+        if (position >= end) return false;
+        long size = Math.min(WINDOW_SIZE, end - position);
+        window = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+        position += size;
+        return true;
+    }
+
+    // Maps [position, end) in windows of whole words, so a word never straddles two windows
+    static MappedByteBuffer[] windows(FileChannel channel, long position, long end, byte n) throws IOException {
+        long size = WINDOW_SIZE / n * n;
+        MappedByteBuffer[] windows = new MappedByteBuffer[(int) ((end - position + size - 1) / size)];
+        for (int i=0 ; i<windows.length ; i++, position+=size)
+            windows[i] = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(size, end - position));
+        return windows;
+    }
+}
@@ -0,0 +1,42 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+public class MappedOutputStream extends OutputStream {
+    // Writes a region of known length through memory-mapped windows, the channel must be readable too
+    private final FileChannel channel;
+    private final long end;
+    private long position;
+    private ByteBuffer window = ByteBuffer.allocate(0);
+
+    public MappedOutputStream(FileChannel channel, long position, long length) {
+        this.channel = channel;
+        this.position = position;
+        this.end = position + length;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (!window.hasRemaining()) nextWindow();
+        window.put((byte) b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (!window.hasRemaining()) nextWindow();
+            int chunk = Math.min(len, window.remaining());
+            window.put(b, off, chunk);
+            off += chunk;
+            len -= chunk;
+        }
+    }
+
+    private void nextWindow() throws IOException {
+        if (position >= end) throw new IOException("Write past the end of the mapped region");
+        long size = Math.min(MappedInputStream.WINDOW_SIZE, end - position);
+        window = channel.map(FileChannel.MapMode.READ_WRITE, position, size);
+        position += size;
+    }
+}
@@ -0,0 +1,84 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+
+public class PipelinedInputStream extends InputStream {
+    private static final BufferRing.Chunk END = new BufferRing.Chunk(new byte[0]);
+
+    // Reads ahead on its own thread into a ring of buffers, so the reads overlap with the caller's coding.
+    // The underlying stream is only read from the reader thread and is left open.
+    private final BufferRing ring;
+    private final Thread reader;
+    private volatile IOException failure;
+    private BufferRing.Chunk current;
+    private int position;
+
+    public PipelinedInputStream(InputStream in, int depth, int bufferSize) {
+        ring = new BufferRing(depth, bufferSize);
+        reader = Thread.ofPlatform().name("huffman-reader").daemon().start(() -> {
+            try {
+                while (!Thread.currentThread().isInterrupted()) {
+                    BufferRing.Chunk chunk = ring.takeEmpty();
+                    chunk.length = in.readNBytes(chunk.data, 0, chunk.data.length);
+                    if (chunk.length == 0) break;
+                    ring.putFull(chunk);
+                }
+                if (Thread.currentThread().isInterrupted()) return;
+            } catch (InterruptedIOException e) {
+                return; // Closed before the end, nobody reads the rest
+            } catch (IOException e) {
+                failure = e;
+            }
+            ring.putFull(END);
+        });
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!next()) return -1;
+        return current.data[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) return 0;
+        if (!next()) return -1;
+        int chunk = Math.min(len, current.length - position);
+        System.arraycopy(current.data, position, b, off, chunk);
+        position += chunk;
+        return chunk;
+    }
+
+    private boolean next() throws IOException {
+        // Move on to the next filled buffer once the current one is used up
+        if (current != null && position < current.length) return true;
+        if (current == END) return false;
+        if (current != null) ring.putEmpty(current);
+        current = ring.takeFull();
+        position = 0;
+        if (current != END) return true;
+        if (failure != null) throw failure;
+        return false;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.interrupt();
+        try {
+            reader.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while stopping the reader");
+        }
+    }
+
+    // Reader waiting for the consumer to hand back a buffer
+    public long readerStallNanos() {
+        return ring.producerStallNanos();
+    }
+
+    // Consumer waiting for the reader to fill a buffer
+    public long consumerStallNanos() {
+        return ring.consumerStallNanos();
+    }
+}
@@ -0,0 +1,99 @@
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+
+public class PipelinedOutputStream extends OutputStream {
+    private static final BufferRing.Chunk END = new BufferRing.Chunk(new byte[0]);
+
+    // Collects the caller's output in a ring of buffers and writes them out on its own thread, so the writes
+    // overlap with the caller's coding. close waits for everything to be written, the underlying stream is
+    // left open.
+    private final BufferRing ring;
+    private final Thread writer;
+    private volatile IOException failure;
+    private BufferRing.Chunk current;
+    private boolean closed;
+
+    public PipelinedOutputStream(OutputStream out, int depth, int bufferSize) {
+        ring = new BufferRing(depth, bufferSize);
+        writer = Thread.ofPlatform().name("huffman-writer").daemon().start(() -> {
+            try {
+                BufferRing.Chunk chunk;
+                while ((chunk = ring.takeFull()) != END) {
+                    // After a failure the buffers still go round so the caller doesn't wait forever
+                    if (failure == null) {
+                        try {
+                            out.write(chunk.data, 0, chunk.length);
+                        } catch (IOException e) {
+                            failure = e;
+                        }
+                    }
+                    ring.putEmpty(chunk);
+                }
+            } catch (InterruptedIOException e) {
+                failure = e;
+            }
+        });
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (current == null) current = nextEmpty();
+        current.data[current.length++] = (byte) b;
+        if (current.length == current.data.length) handOver();
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (current == null) current = nextEmpty();
+            int chunk = Math.min(len, current.data.length - current.length);
+            System.arraycopy(b, off, current.data, current.length, chunk);
+            current.length += chunk;
+            off += chunk;
+            len -= chunk;
+            if (current.length == current.data.length) handOver();
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        // Hands a partly filled buffer to the writer, it doesn't wait for it to be written
+        if (current != null && current.length > 0) handOver();
+    }
+
+    private BufferRing.Chunk nextEmpty() throws IOException {
+        if (failure != null) throw failure;
+        return ring.takeEmpty();
+    }
+
+    private void handOver() {
+        ring.putFull(current);
+        current = null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        flush();
+        ring.putFull(END);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the writer");
+        }
+        if (failure != null) throw failure;
+    }
+
+    // Producer waiting for the writer to hand back a buffer
+    public long producerStallNanos() {
+        return ring.producerStallNanos();
+    }
+
+    // Writer waiting for the producer to fill a buffer
+    public long writerStallNanos() {
+        return ring.consumerStallNanos();
+    }
+}
@@ -0,0 +1,115 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.List;
+
+public class SharedDictionary {
+    public static final String EXTENSION = ".hcd";
+    private static final int MAGIC = 0x48434449; // "HCDI"
+    // The escape is counted as one in every ESCAPE_SHARE trained words, rare enough not to cost the
+    // trained words much while keeping unknown words from getting a very long code
+    private static final int ESCAPE_SHARE = 4096;
+
+    // Dictionary file: magic, n, escape symbol (4), then the canonical table. Files compressed with a
+    // dictionary only carry its id, the first 8 bytes of the SHA-256 of everything after the magic.
+    final byte n;
+    final CodeTable table;
+    final long id;
+    private final TableEncoder encoder;
+    private TableDecoder decoder;
+
+    private SharedDictionary(CodeTable table, long id) {
+        this.n = table.n;
+        this.table = table;
+        this.id = id;
+        encoder = new TableEncoder(table);
+    }
+
+    public static SharedDictionary train(byte n, List<String> samples, int maxCodeLength) throws IOException {
+        // Only whole words are learned, short last words are always written as literals
+        FrequencyCounter counter = new FrequencyCounter(n);
+        for (String sample : samples) {
+            byte[] data = Files.readAllBytes(Path.of(sample));
+            counter.add(data, 0, data.length - data.length % n);
+        }
+        WordFrequencies trained = counter.finish();
+        // The escape goes in as the empty word, which the table keeps as its tail
+        int size = trained.size() + 1;
+        long[] counts = Arrays.copyOf(trained.counts, size);
+        counts[size-1] = 1 + trained.total() / ESCAPE_SHARE;
+        byte[] words = Arrays.copyOf(trained.words, size * n);
+        CodeTable table = HuffmanCodeManager.canonicalTable(new WordFrequencies(n, size, words, counts, size - 1, 0), maxCodeLength);
+        table.escape = table.tail;
+        return new SharedDictionary(table, id(contents(table)));
+    }
+
+    public long id() {
+        return id;
+    }
+
+    public String idString() {
+        return String.format("%016x", id);
+    }
+
+    public byte wordSize() {
+        return n;
+    }
+
+    TableEncoder encoder() {
+        return encoder;
+    }
+
+    // Every caller gets its own decoder state over the same lookup tables
+    synchronized TableDecoder decoder() {
+        if (decoder == null) decoder = new TableDecoder(table);
+        return new TableDecoder(decoder);
+    }
+
+    // Writes the dictionary as <id>.hcd in the directory, the name decompression looks it up by
+    public String write(String directory) throws IOException {
+        String path = directory + File.separator + idString() + EXTENSION;
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path)))) {
+            out.writeInt(MAGIC);
+            out.write(contents(table));
+        }
+        return path;
+    }
+
+    public static SharedDictionary read(String path) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path)))) {
+            if (in.readInt() != MAGIC)
+                throw new IOException("Not a dictionary: " + path);
+            CodeTable table = CodeTable.readEscaped(in, in.readByte());
+            return new SharedDictionary(table, id(contents(table)));
+        }
+    }
+
+    private static byte[] contents(CodeTable table) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(table.n);
+        table.writeEscaped(out);
+        return bytes.toByteArray();
+    }
+
+    private static long id(byte[] contents) {
+        try {
+            return ByteBuffer.wrap(MessageDigest.getInstance("SHA-256").digest(contents)).getLong();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,142 @@
+import java.util.Arrays;
+
+public class SpaceSaving {
+    // Space-Saving heavy hitters (Metwally et al.): a fixed number of counters, and a word without one takes
+    // over the smallest counter, adding one to its count. Counts are over-estimates by at most the count taken
+    // over, and every word more frequent than total/counters is guaranteed to hold a counter.
+    // Memory is fixed by the number of counters, whatever the number of distinct words.
+    final byte n;
+    private final int counters;
+    private final byte[] words;
+    private final long[] counts;
+    private int size;
+    // Min-heap of counters by count, and where each counter sits in it
+    private final int[] heap, heapPosition;
+    // Open addressing from word to counter+1, 0 marks a free slot
+    private final int[] index;
+    private final int mask;
+    private long total;
+    private byte[] tail;
+
+    public SpaceSaving(byte n, int counters) {
+        this.n = n;
+        this.counters = counters;
+        words = new byte[counters * n];
+        counts = new long[counters];
+        heap = new int[counters];
+        heapPosition = new int[counters];
+        int capacity = 1024;
+        while (capacity < 2L * counters) capacity <<= 1;
+        index = new int[capacity];
+        mask = capacity - 1;
+    }
+
+    public void add(byte[] buffer, int offset, int length) {
+        // Only the last call may end with a short word, it is kept aside like in FrequencyCounter
+        int end = offset + length, fullEnd = end - length % n;
+        for (int i=offset ; i<fullEnd ; i+=n) add(buffer, i);
+        total += (fullEnd - offset) / n;
+        if (fullEnd < end) tail = Arrays.copyOfRange(buffer, fullEnd, end);
+    }
+
+    private void add(byte[] buffer, int offset) {
+        int slot = hash(buffer, offset) & mask;
+        while (index[slot] != 0) {
+            int counter = index[slot] - 1;
+            if (Arrays.equals(words, counter * n, counter * n + n, buffer, offset, offset + n)) {
+                counts[counter]++;
+                siftDown(heapPosition[counter]);
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        int counter;
+        if (size < counters) {
+            counter = size++;
+            heap[counter] = counter;
+            heapPosition[counter] = counter;
+            counts[counter] = 1;
+            siftUp(counter);
+        } else {
+            // Take over the smallest counter, its word leaves the index
+            counter = heap[0];
+            remove(hash(words, counter * n) & mask, counter);
+            counts[counter]++;
+            siftDown(0);
+            slot = hash(buffer, offset) & mask;
+            while (index[slot] != 0) slot = (slot + 1) & mask;
+        }
+        System.arraycopy(buffer, offset, words, counter * n, n);
+        index[slot] = counter + 1;
+    }
+
+    private void remove(int slot, int counter) {
+        while (index[slot] != counter + 1) slot = (slot + 1) & mask;
+        // Backward shift deletion keeps every remaining word reachable from its home slot
+        int next = (slot + 1) & mask;
+        while (index[next] != 0) {
+            int home = hash(words, (index[next] - 1) * n) & mask;
+            if (((next - home) & mask) >= ((next - slot) & mask)) {
+                index[slot] = index[next];
+                slot = next;
+            }
+            next = (next + 1) & mask;
+        }
+        index[slot] = 0;
+    }
+
+    private void siftUp(int position) {
+        int counter = heap[position];
+        while (position > 0) {
+            int parent = (position - 1) >>> 1;
+            if (counts[heap[parent]] <= counts[counter]) break;
+            place(heap[parent], position);
+            position = parent;
+        }
+        place(counter, position);
+    }
+
+    private void siftDown(int position) {
+        int counter = heap[position];
+        while (true) {
+            int child = 2 * position + 1;
+            if (child >= size) break;
+            if (child + 1 < size && counts[heap[child+1]] < counts[heap[child]]) child++;
+            if (counts[heap[child]] >= counts[counter]) break;
+            place(heap[child], position);
+            position = child;
+        }
+        place(counter, position);
+    }
+
+    private void place(int counter, int position) {
+        heap[position] = counter;
+        heapPosition[counter] = position;
+    }
+
+    private int hash(byte[] buffer, int offset) {
+        int h = 1;
+        for (int i=0 ; i<n ; i++) h = 31 * h + buffer[offset + i];
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    // The k most frequent words, plus the escape as an empty tail word counting everything else
+    // (including the short last word, which is always written as a literal)
+    public WordFrequencies finish(int k) {
+        Integer[] order = new Integer[size];
+        for (int i=0 ; i<size ; i++) order[i] = i;
+        Arrays.sort(order, (a, b) -> Long.compare(counts[b], counts[a]));
+        int kept = Math.min(k, size);
+        byte[] topWords = new byte[(kept + 1) * n];
+        long[] topCounts = new long[kept + 1];
+        long covered = 0;
+        for (int i=0 ; i<kept ; i++) {
+            System.arraycopy(words, order[i] * n, topWords, i * n, n);
+            topCounts[i] = counts[order[i]];
+            covered += counts[order[i]];
+        }
+        topCounts[kept] = Math.max(1, total - covered + ((tail != null)? 1 : 0));
+        return new WordFrequencies(n, kept + 1, topWords, topCounts, kept, 0);
+    }
+}
@@ -0,0 +1,66 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+public class SyncIndex {
+    public static final String EXTENSION = ".idx";
+    private static final int MAGIC = 0x48434958; // "HCIX"
+
+    // Sidecar index of a single-stream file: every interval original bytes (a multiple of n) it records
+    // the original offset and the bit offset into the payload, which starts at payloadOffset in the file
+    final long interval, payloadOffset;
+    int size;
+    long[] originalOffsets, bitOffsets;
+
+    public SyncIndex(long interval, long payloadOffset) {
+        this.interval = interval;
+        this.payloadOffset = payloadOffset;
+        originalOffsets = new long[64];
+        bitOffsets = new long[64];
+    }
+
+    public void add(long originalOffset, long bitOffset) {
+        if (size == originalOffsets.length) {
+            originalOffsets = Arrays.copyOf(originalOffsets, size * 2);
+            bitOffsets = Arrays.copyOf(bitOffsets, size * 2);
+        }
+        originalOffsets[size] = originalOffset;
+        bitOffsets[size] = bitOffset;
+        size++;
+    }
+
+    // Returns the last sync point at or before the original offset
+    public int find(long originalOffset) {
+        int i = Arrays.binarySearch(originalOffsets, 0, size, originalOffset);
+        return (i >= 0)? i : Math.max(-i - 2, 0);
+    }
+
+    public void write(String path) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path)))) {
+            out.writeInt(MAGIC);
+            out.writeLong(interval);
+            out.writeLong(payloadOffset);
+            out.writeInt(size);
+            for (int i=0 ; i<size ; i++) {
+                out.writeLong(originalOffsets[i]);
+                out.writeLong(bitOffsets[i]);
+            }
+        }
+    }
+
+    public static SyncIndex read(String path) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path)))) {
+            if (in.readInt() != MAGIC)
+                throw new IOException("Not a sync index: " + path);
+            SyncIndex index = new SyncIndex(in.readLong(), in.readLong());
+            int size = in.readInt();
+            for (int i=0 ; i<size ; i++) index.add(in.readLong(), in.readLong());
+            return index;
+        }
+    }
+}
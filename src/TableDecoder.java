@@ -0,0 +1,372 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+public class TableDecoder {
+    public static final int PRIMARY_BITS = 11;
+    public static final int BUFFER_SIZE = 1 << 20; // 1 MB
+    private static final VarHandle BIG_ENDIAN_LONG = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+    private static final int PRIMARY_SIZE = 1 << PRIMARY_BITS, PRIMARY_MASK = PRIMARY_SIZE - 1;
+    private static final int LEAF = 0, PAIR = 1, LINK = 2;
+
+    private final byte n;
+    private final byte[] words;
+    // Lookup entries. The primary table is indexed by the next PRIMARY_BITS bits, codes longer than that
+    // continue in secondary tables. meta packs the entry kind, the bits consumed by the first symbol
+    // (or by a link) and either the bits consumed by both symbols of a pair or the width of a linked table.
+    private int[] symbol, second, meta;
+    private int tableEnd;
+    private final int escape, longestCode;
+    private int linkBits; // Bits left in the accumulator after the last link
+
+    private InputStream source;
+    private OutputStream sink;
+    private byte[] in, out, inBuffer, outBuffer;
+    private int inPos, inLimit, outPos;
+    private long acc;
+    private int bits;
+
+    public TableDecoder(CodeTable table) {
+        n = table.n;
+        words = table.words;
+        symbol = new int[PRIMARY_SIZE];
+        second = new int[PRIMARY_SIZE];
+        meta = new int[PRIMARY_SIZE];
+        tableEnd = PRIMARY_SIZE;
+        escape = table.escape;
+        longestCode = table.maxLength();
+        buildTables(table);
+        buildPairs();
+    }
+
+    // Shares the lookup tables of another decoder, so several threads can decode with the same code table
+    public TableDecoder(TableDecoder shared) {
+        n = shared.n;
+        words = shared.words;
+        symbol = shared.symbol;
+        second = shared.second;
+        meta = shared.meta;
+        tableEnd = shared.tableEnd;
+        escape = shared.escape;
+        longestCode = shared.longestCode;
+    }
+
+    private void buildTables(CodeTable table) {
+        // Pending tables to fill: symbol range [from, to), bits already consumed, table base and table width
+        int[] pending = {0, table.size, 0, 0, PRIMARY_BITS};
+        int pendingEnd = 5;
+        while (pendingEnd > 0) {
+            pendingEnd -= 5;
+            int from = pending[pendingEnd], to = pending[pendingEnd+1], consumed = pending[pendingEnd+2];
+            int base = pending[pendingEnd+3], width = pending[pendingEnd+4];
+            int i = from;
+            while (i < to) {
+                int length = table.lengths[i] - consumed;
+                long rest = table.codes[i] & ((1L << length) - 1);
+                if (length <= width) { // The code ends in this table, fill all entries it prefixes
+                    int start = base + (int) (rest << (width - length));
+                    int end = start + (1 << (width - length));
+                    Arrays.fill(symbol, start, end, i);
+                    Arrays.fill(meta, start, end, LEAF | length << 2);
+                    i++;
+                    continue;
+                }
+                // All following codes sharing the next width bits continue in the same linked table
+                long prefix = rest >>> (length - width);
+                int j = i, maxLength = 0;
+                while (j < to && table.lengths[j] - consumed > width
+                        && ((table.codes[j] >>> (table.lengths[j] - consumed - width)) & ((1L << width) - 1)) == prefix) {
+                    maxLength = Math.max(maxLength, table.lengths[j] - consumed - width);
+                    j++;
+                }
+                int childWidth = Math.min(PRIMARY_BITS, maxLength), childBase = allocate(1 << childWidth);
+                symbol[base + (int) prefix] = childBase;
+                meta[base + (int) prefix] = LINK | width << 2 | childWidth << 8;
+                if (pendingEnd == pending.length) pending = Arrays.copyOf(pending, pending.length * 2);
+                pending[pendingEnd] = i;
+                pending[pendingEnd+1] = j;
+                pending[pendingEnd+2] = consumed + width;
+                pending[pendingEnd+3] = childBase;
+                pending[pendingEnd+4] = childWidth;
+                pendingEnd += 5;
+                i = j;
+            }
+        }
+    }
+
+    private int allocate(int entries) {
+        int base = tableEnd;
+        tableEnd += entries;
+        if (tableEnd > symbol.length) {
+            int capacity = Math.max(tableEnd, symbol.length * 2);
+            symbol = Arrays.copyOf(symbol, capacity);
+            meta = Arrays.copyOf(meta, capacity);
+        }
+        return base;
+    }
+
+    private void buildPairs() {
+        // A primary entry whose first code leaves room for a whole second code resolves both at once
+        for (int i=0 ; i<PRIMARY_SIZE ; i++) {
+            if ((meta[i] & 3) != LEAF) continue;
+            int firstLength = (meta[i] >>> 2) & 63;
+            if (firstLength >= PRIMARY_BITS) continue;
+            int j = (i << firstLength) & PRIMARY_MASK;
+            if ((meta[j] & 3) == LINK) continue;
+            int secondLength = (meta[j] >>> 2) & 63;
+            if (firstLength + secondLength > PRIMARY_BITS) continue;
+            second[i] = symbol[j];
+            meta[i] = PAIR | firstLength << 2 | (firstLength + secondLength) << 8;
+        }
+    }
+
+    // Streams are decoded through these buffers instead of ones of BUFFER_SIZE allocated on first use
+    public void setBuffers(byte[] inBuffer, byte[] outBuffer) {
+        this.inBuffer = inBuffer;
+        this.outBuffer = outBuffer;
+    }
+
+    public void decode(InputStream source, OutputStream sink, long originalLength) throws IOException {
+        decode(source, sink, originalLength, 0);
+    }
+
+    // Starts decoding skipBits bits into the source, for sync points that don't fall on a byte boundary
+    public void decode(InputStream source, OutputStream sink, long originalLength, int skipBits) throws IOException {
+        if (inBuffer == null) {
+            inBuffer = new byte[BUFFER_SIZE];
+            outBuffer = new byte[BUFFER_SIZE];
+        }
+        this.source = source;
+        this.sink = sink;
+        in = inBuffer;
+        out = outBuffer;
+        inPos = inLimit = outPos = 0;
+        run(originalLength, out.length - 2*n, skipBits);
+        this.source = null;
+        this.sink = null;
+    }
+
+    public void decode(byte[] src, int srcOffset, int srcLength, byte[] dst, int dstOffset, int originalLength) throws IOException {
+        // Decodes straight between arrays, dst must have room for originalLength bytes
+        in = src;
+        inPos = srcOffset;
+        inLimit = srcOffset + srcLength;
+        out = dst;
+        outPos = dstOffset;
+        run(originalLength, Integer.MAX_VALUE, 0);
+    }
+
+    private void run(long originalLength, int outLimit, int skipBits) throws IOException {
+        acc = 0;
+        bits = 0;
+        if (skipBits > 0) {
+            fill();
+            bits -= skipBits;
+        }
+        long fullWords = originalLength / n;
+        int lastWordLength = (int) (originalLength % n);
+        if (escape >= 0) {
+            runEscaped(fullWords, lastWordLength, outLimit);
+            return;
+        }
+        while (fullWords > 0) {
+            if (outPos > outLimit) flush();
+            if (bits < PRIMARY_BITS) fill();
+            int index = (int) (acc >>> (bits - PRIMARY_BITS)) & PRIMARY_MASK;
+            int entry = meta[index];
+            if ((entry & 3) == PAIR && fullWords >= 2) {
+                putWord(symbol[index]);
+                putWord(second[index]);
+                bits -= entry >>> 8;
+                fullWords -= 2;
+            } else {
+                putWord(resolve(index, entry));
+                fullWords--;
+            }
+        }
+        if (lastWordLength > 0) {
+            if (outPos > outLimit) flush();
+            if (bits < PRIMARY_BITS) fill();
+            int index = (int) (acc >>> (bits - PRIMARY_BITS)) & PRIMARY_MASK;
+            System.arraycopy(words, resolve(index, meta[index]) * n, out, outPos, lastWordLength);
+            outPos += lastWordLength;
+        }
+        flush();
+    }
+
+    private void runEscaped(long fullWords, int lastWordLength, int outLimit) throws IOException {
+        // Symbols one at a time, an escape is followed by the literal bytes of the word
+        while (fullWords > 0) {
+            if (outPos > outLimit) flush();
+            if (bits < PRIMARY_BITS) fill();
+            int index = (int) (acc >>> (bits - PRIMARY_BITS)) & PRIMARY_MASK;
+            int sym = resolve(index, meta[index]);
+            if (sym == escape) putLiteral(n);
+            else putWord(sym);
+            fullWords--;
+        }
+        if (lastWordLength > 0) {
+            if (outPos > outLimit) flush();
+            if (bits < PRIMARY_BITS) fill();
+            int index = (int) (acc >>> (bits - PRIMARY_BITS)) & PRIMARY_MASK;
+            int sym = resolve(index, meta[index]);
+            if (sym == escape) {
+                putLiteral(lastWordLength);
+            } else {
+                System.arraycopy(words, sym * n, out, outPos, lastWordLength);
+                outPos += lastWordLength;
+            }
+        }
+        flush();
+    }
+
+    private void putLiteral(int length) throws IOException {
+        for (int i=0 ; i<length ; i++) {
+            if (bits < 8) fill();
+            bits -= 8;
+            out[outPos++] = (byte) (acc >>> bits);
+        }
+    }
+
+    public void decodeInterleaved(byte[] src, int[] offsets, int[] lengths, byte[] dst, int dstOffset, int originalLength) {
+        // Symbols were dealt round-robin over the streams. Each round takes one symbol from every stream, the
+        // streams don't depend on each other, so the CPU can overlap their table lookups.
+        if (escape >= 0)
+            throw new IllegalStateException("Interleaved streams don't support escapes");
+        int streams = offsets.length;
+        Lane[] lanes = new Lane[streams];
+        for (int i=0 ; i<streams ; i++) lanes[i] = new Lane(src, offsets[i], offsets[i] + lengths[i]);
+        int fullWords = originalLength / n, lastWordLength = originalLength % n;
+        out = dst;
+        outPos = dstOffset;
+        int rounds = fullWords / streams, round = (streams == 4)? roundsOfFour(lanes, rounds) : 0;
+        for ( ; round<rounds ; round++)
+            for (Lane lane : lanes) putWord(next(lane));
+        for (int i=0 ; i<fullWords % streams ; i++) putWord(next(lanes[i]));
+        if (lastWordLength > 0) {
+            System.arraycopy(words, next(lanes[fullWords % streams]) * n, out, outPos, lastWordLength);
+            outPos += lastWordLength;
+        }
+    }
+
+    private int roundsOfFour(Lane[] lanes, int rounds) {
+        // The round loop of decodeInterleaved with the four lanes in locals, while every lane has 8 bytes left
+        // to read. One refill tops a lane up to 56 bits, so longer codes go through the lane-by-lane loop.
+        if (longestCode > 56) return 0;
+        int low = Math.max(longestCode, PRIMARY_BITS); // Enough bits for the primary index and any code
+        Lane l0 = lanes[0], l1 = lanes[1], l2 = lanes[2], l3 = lanes[3];
+        byte[] src = l0.src;
+        long a0 = l0.acc, a1 = l1.acc, a2 = l2.acc, a3 = l3.acc;
+        int b0 = l0.bits, b1 = l1.bits, b2 = l2.bits, b3 = l3.bits, p0 = l0.pos, p1 = l1.pos, p2 = l2.pos, p3 = l3.pos;
+        int e0 = l0.limit - 8, e1 = l1.limit - 8, e2 = l2.limit - 8, e3 = l3.limit - 8;
+        int round = 0;
+        for ( ; round<rounds && p0 <= e0 && p1 <= e1 && p2 <= e2 && p3 <= e3 ; round++) {
+            if (b0 < low) { int t = Math.min((64 - b0) >>> 3, 7) << 3; a0 = (a0 << t) | ((long) BIG_ENDIAN_LONG.get(src, p0) >>> (64 - t)); p0 += t >>> 3; b0 += t; }
+            if (b1 < low) { int t = Math.min((64 - b1) >>> 3, 7) << 3; a1 = (a1 << t) | ((long) BIG_ENDIAN_LONG.get(src, p1) >>> (64 - t)); p1 += t >>> 3; b1 += t; }
+            if (b2 < low) { int t = Math.min((64 - b2) >>> 3, 7) << 3; a2 = (a2 << t) | ((long) BIG_ENDIAN_LONG.get(src, p2) >>> (64 - t)); p2 += t >>> 3; b2 += t; }
+            if (b3 < low) { int t = Math.min((64 - b3) >>> 3, 7) << 3; a3 = (a3 << t) | ((long) BIG_ENDIAN_LONG.get(src, p3) >>> (64 - t)); p3 += t >>> 3; b3 += t; }
+            int i0 = (int) (a0 >>> (b0 - PRIMARY_BITS)) & PRIMARY_MASK, i1 = (int) (a1 >>> (b1 - PRIMARY_BITS)) & PRIMARY_MASK;
+            int i2 = (int) (a2 >>> (b2 - PRIMARY_BITS)) & PRIMARY_MASK, i3 = (int) (a3 >>> (b3 - PRIMARY_BITS)) & PRIMARY_MASK;
+            int m0 = meta[i0], m1 = meta[i1], m2 = meta[i2], m3 = meta[i3];
+            int s0 = symbol[i0], s1 = symbol[i1], s2 = symbol[i2], s3 = symbol[i3];
+            if ((m0 & 3) == LINK) { s0 = link(a0, b0, i0, m0); b0 = linkBits; } else b0 -= (m0 >>> 2) & 63;
+            if ((m1 & 3) == LINK) { s1 = link(a1, b1, i1, m1); b1 = linkBits; } else b1 -= (m1 >>> 2) & 63;
+            if ((m2 & 3) == LINK) { s2 = link(a2, b2, i2, m2); b2 = linkBits; } else b2 -= (m2 >>> 2) & 63;
+            if ((m3 & 3) == LINK) { s3 = link(a3, b3, i3, m3); b3 = linkBits; } else b3 -= (m3 >>> 2) & 63;
+            putWord(s0);
+            putWord(s1);
+            putWord(s2);
+            putWord(s3);
+        }
+        l0.acc = a0; l1.acc = a1; l2.acc = a2; l3.acc = a3;
+        l0.bits = b0; l1.bits = b1; l2.bits = b2; l3.bits = b3;
+        l0.pos = p0; l1.pos = p1; l2.pos = p2; l3.pos = p3;
+        return round;
+    }
+
+    private int link(long acc, int bits, int index, int entry) {
+        // Secondary tables of a code that is already whole in the accumulator
+        while ((entry & 3) == LINK) {
+            bits -= (entry >>> 2) & 63;
+            int width = entry >>> 8;
+            index = symbol[index] + ((int) (acc >>> (bits - width)) & ((1 << width) - 1));
+            entry = meta[index];
+        }
+        linkBits = bits - ((entry >>> 2) & 63);
+        return symbol[index];
+    }
+
+    private static final class Lane {
+        final byte[] src;
+        final int limit;
+        int pos, bits;
+        long acc;
+
+        Lane(byte[] src, int pos, int limit) {
+            this.src = src;
+            this.pos = pos;
+            this.limit = limit;
+        }
+    }
+
+    private int next(Lane lane) {
+        // Same lookup as run, with the lane topped up to a whole code first so no level has to refill
+        if (lane.bits < CodeTable.MAX_CODE_LENGTH) {
+            // Up to 7 bytes at a time from one 8-byte read, byte by byte near the end of the stream
+            while (lane.bits <= 56 && lane.pos + 8 <= lane.limit) {
+                int take = Math.min((64 - lane.bits) >>> 3, 7) << 3;
+                lane.acc = (lane.acc << take) | ((long) BIG_ENDIAN_LONG.get(lane.src, lane.pos) >>> (64 - take));
+                lane.pos += take >>> 3;
+                lane.bits += take;
+            }
+            while (lane.bits <= 56) {
+                lane.acc = (lane.pos == lane.limit)? lane.acc << 8 : (lane.acc << 8) | (lane.src[lane.pos++] & 0xFF);
+                lane.bits += 8;
+            }
+        }
+        int index = (int) (lane.acc >>> (lane.bits - PRIMARY_BITS)) & PRIMARY_MASK;
+        int sym = link(lane.acc, lane.bits, index, meta[index]);
+        lane.bits = linkBits;
+        return sym;
+    }
+
+    private int resolve(int index, int entry) throws IOException {
+        // Follow links into secondary tables until the entry holds a symbol, consuming the bits of each level
+        while ((entry & 3) == LINK) {
+            bits -= (entry >>> 2) & 63;
+            int width = entry >>> 8;
+            if (bits < width) fill();
+            index = symbol[index] + ((int) (acc >>> (bits - width)) & ((1 << width) - 1));
+            entry = meta[index];
+        }
+        bits -= (entry >>> 2) & 63;
+        return symbol[index];
+    }
+
+    private void putWord(int sym) {
+        int offset = sym * n;
+        for (int i=0 ; i<n ; i++) out[outPos++] = words[offset + i];
+    }
+
+    private void fill() throws IOException {
+        // Top the accumulator up to at least 57 bits, past the end of the input it is padded with zeros
+        while (bits <= 56) {
+            if (inPos == inLimit && source != null) {
+                inPos = 0;
+                inLimit = Math.max(source.read(in), 0);
+            }
+            acc = (inPos == inLimit)? acc << 8 : (acc << 8) | (in[inPos++] & 0xFF);
+            bits += 8;
+        }
+    }
+
+    private void flush() throws IOException {
+        if (sink == null) return;
+        sink.write(out, 0, outPos);
+        outPos = 0;
+    }
+}
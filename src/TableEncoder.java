@@ -0,0 +1,82 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+public class TableEncoder {
+    private final byte n;
+    private final WordIndex index;
+    private final long[] codes;
+    private final byte[] lengths;
+    private final int tail, escape;
+
+    public TableEncoder(CodeTable table) {
+        n = table.n;
+        index = new WordIndex(table);
+        codes = table.codes;
+        lengths = table.lengths;
+        tail = table.tail;
+        escape = table.escape;
+    }
+
+    public void encode(byte[] buffer, int offset, int length, BitWriter writer) throws IOException {
+        // Only the last call may end with a short word, which is written with the code of the tail
+        int end = offset + length, fullEnd = end - length % n;
+        for (int i=offset ; i<fullEnd ; i+=n) {
+            int symbol = index.lookup(buffer, i);
+            if (symbol < 0) {
+                writeEscape(writer);
+                for (int j=0 ; j<n ; j++) writer.write(buffer[i+j] & 0xFF, 8);
+                continue;
+            }
+            writer.write(codes[symbol], lengths[symbol]);
+        }
+        if (fullEnd < end) {
+            writer.write(codes[tail], lengths[tail]);
+            // With a shared dictionary the tail is the escape, followed by the short word itself
+            if (tail == escape) for (int j=fullEnd ; j<end ; j++) writer.write(buffer[j] & 0xFF, 8);
+        }
+    }
+
+    public void encode(ByteBuffer buffer, int offset, int length, BitWriter writer) throws IOException {
+        // Same as above, reading the words straight out of a (mapped) buffer
+        int end = offset + length, fullEnd = end - length % n;
+        for (int i=offset ; i<fullEnd ; i+=n) {
+            int symbol = index.lookup(buffer, i);
+            if (symbol < 0) {
+                writeEscape(writer);
+                for (int j=0 ; j<n ; j++) writer.write(buffer.get(i+j) & 0xFF, 8);
+                continue;
+            }
+            writer.write(codes[symbol], lengths[symbol]);
+        }
+        if (fullEnd < end) {
+            writer.write(codes[tail], lengths[tail]);
+            if (tail == escape) for (int j=fullEnd ; j<end ; j++) writer.write(buffer.get(j) & 0xFF, 8);
+        }
+    }
+
+    public void encodeInterleaved(byte[] buffer, int offset, int length, BitWriter[] writers) throws IOException {
+        // Word j goes to stream j % streams, so every stream decodes on its own and the short word comes last
+        int end = offset + length, fullEnd = end - length % n, stream = 0;
+        for (int i=offset ; i<fullEnd ; i+=n) {
+            int symbol = index.lookup(buffer, i);
+            if (symbol < 0) {
+                writeEscape(writers[stream]);
+                for (int j=0 ; j<n ; j++) writers[stream].write(buffer[i+j] & 0xFF, 8);
+            } else {
+                writers[stream].write(codes[symbol], lengths[symbol]);
+            }
+            if (++stream == writers.length) stream = 0;
+        }
+        if (fullEnd < end) {
+            writers[stream].write(codes[tail], lengths[tail]);
+            if (tail == escape) for (int j=fullEnd ; j<end ; j++) writers[stream].write(buffer[j] & 0xFF, 8);
+        }
+    }
+
+    private void writeEscape(BitWriter writer) throws IOException {
+        // Only shared dictionaries can miss a word, the escape is then followed by its n bytes
+        if (escape < 0)
+            throw new IllegalStateException("Word missing from the code table");
+        writer.write(codes[escape], lengths[escape]);
+    }
+}
@@ -0,0 +1,69 @@
+import java.nio.ByteBuffer;
+
+public class WordFrequencies {
+    // Words are stored flat with n bytes per word, the short last word (if any) is padded with zeros
+    final byte n;
+    final int size;
+    final byte[] words;
+    final long[] counts;
+    final int tail, tailLength;
+
+    WordFrequencies(byte n, int size, byte[] words, long[] counts, int tail, int tailLength) {
+        this.n = n;
+        this.size = size;
+        this.words = words;
+        this.counts = counts;
+        this.tail = tail;
+        this.tailLength = tailLength;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long count(int i) {
+        return counts[i];
+    }
+
+    public long total() {
+        long total = 0;
+        for (int i=0 ; i<size ; i++) total += counts[i];
+        return total;
+    }
+
+    // Shannon entropy of the word distribution, the least average bits per word any prefix code can reach
+    public double entropy() {
+        double total = total(), entropy = 0;
+        for (int i=0 ; i<size ; i++) {
+            double p = counts[i] / total;
+            entropy -= p * Math.log(p) / Math.log(2);
+        }
+        return entropy;
+    }
+
+    public ByteWord word(int i) {
+        byte[] word = new byte[(i == tail)? tailLength : n];
+        System.arraycopy(words, i * n, word, 0, word.length);
+        return new ByteWord(word);
+    }
+
+    static long pack(byte[] buffer, int offset, int n) {
+        long key = 0;
+        for (int i=0 ; i<n ; i++) key = (key << 8) | (buffer[offset + i] & 0xFF);
+        return key;
+    }
+
+    static long pack(ByteBuffer buffer, int offset, int n) {
+        if (n == 8) return buffer.getLong(offset); // Big-endian, same as the loop
+        long key = 0;
+        for (int i=0 ; i<n ; i++) key = (key << 8) | (buffer.get(offset + i) & 0xFF);
+        return key;
+    }
+
+    static void unpack(long key, byte[] buffer, int offset, int n) {
+        for (int i=n-1 ; i>=0 ; i--) {
+            buffer[offset + i] = (byte) key;
+            key >>>= 8;
+        }
+    }
+}
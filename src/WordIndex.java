@@ -0,0 +1,85 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+public class WordIndex {
+    private final byte n;
+    private final byte[] words;
+    // n <= 2 indexes the symbols directly, n <= 8 packs the word into a long key (storing symbol+1)
+    // and longer words are hashed into an open-addressing table of symbol+1 compared against the words
+    private int[] direct;
+    private LongLongMap packed;
+    private int[] slots;
+    private int mask;
+
+    public WordIndex(CodeTable table) {
+        n = table.n;
+        words = table.words;
+        if (n <= 2) {
+            direct = new int[1 << (8 * n)];
+            Arrays.fill(direct, -1);
+            for (int i=0 ; i<table.size ; i++)
+                if (i != table.tail) direct[(int) WordFrequencies.pack(words, i * n, n)] = i;
+        } else if (n <= 8) {
+            packed = new LongLongMap(table.size);
+            for (int i=0 ; i<table.size ; i++)
+                if (i != table.tail) packed.add(WordFrequencies.pack(words, i * n, n), i + 1);
+        } else {
+            int capacity = 1024;
+            while (capacity < 2L * table.size) capacity <<= 1;
+            slots = new int[capacity];
+            mask = capacity - 1;
+            for (int i=0 ; i<table.size ; i++) {
+                if (i == table.tail) continue;
+                int slot = hash(words, i * n) & mask;
+                while (slots[slot] != 0) slot = (slot + 1) & mask;
+                slots[slot] = i + 1;
+            }
+        }
+    }
+
+    // Returns the symbol of the n-byte word at offset, or -1 if it is not in the table
+    public int lookup(byte[] buffer, int offset) {
+        if (direct != null) {
+            return (n == 1)? direct[buffer[offset] & 0xFF] : direct[(buffer[offset] & 0xFF) << 8 | (buffer[offset+1] & 0xFF)];
+        }
+        if (packed != null) {
+            return (int) packed.get(WordFrequencies.pack(buffer, offset, n)) - 1;
+        }
+        int slot = hash(buffer, offset) & mask;
+        while (slots[slot] != 0) {
+            if (Arrays.equals(words, (slots[slot] - 1) * n, slots[slot] * n, buffer, offset, offset + n))
+                return slots[slot] - 1;
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    public int lookup(ByteBuffer buffer, int offset) {
+        if (direct != null) {
+            return (n == 1)? direct[buffer.get(offset) & 0xFF] : direct[buffer.getShort(offset) & 0xFFFF];
+        }
+        if (packed != null) {
+            return (int) packed.get(WordFrequencies.pack(buffer, offset, n)) - 1;
+        }
+        int h = 1;
+        for (int i=0 ; i<n ; i++) h = 31 * h + buffer.get(offset + i);
+        int slot = (h ^ (h >>> 16)) & mask;
+        while (slots[slot] != 0) {
+            if (matches(buffer, offset, slots[slot] - 1)) return slots[slot] - 1;
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private boolean matches(ByteBuffer buffer, int offset, int symbol) {
+        for (int i=0 ; i<n ; i++)
+            if (buffer.get(offset + i) != words[symbol * n + i]) return false;
+        return true;
+    }
+
+    private int hash(byte[] buffer, int offset) {
+        int h = 1;
+        for (int i=0 ; i<n ; i++) h = 31 * h + buffer[offset + i];
+        return h ^ (h >>> 16);
+    }
+}
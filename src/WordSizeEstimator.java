@@ -0,0 +1,100 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+public class WordSizeEstimator {
+    public static final int MAX_WORD_SIZE = 8;
+    public static final int SAMPLE_SIZE = 4 << 20; // 4 MB
+    private static final int CHUNKS = 16;
+    private static final int ALIGNMENT = 840; // Divisible by every candidate n, so words line up with the file's
+
+    public static class Estimate {
+        public final byte n;
+        public final int sampledSymbols;
+        public final long distinctSymbols;
+        public final double entropy; // Bits per word
+        public final long payloadBytes, headerBytes;
+
+        Estimate(byte n, int sampledSymbols, long distinctSymbols, double entropy, long payloadBytes, long headerBytes) {
+            this.n = n;
+            this.sampledSymbols = sampledSymbols;
+            this.distinctSymbols = distinctSymbols;
+            this.entropy = entropy;
+            this.payloadBytes = payloadBytes;
+            this.headerBytes = headerBytes;
+        }
+
+        public long totalBytes() {
+            return payloadBytes + headerBytes;
+        }
+
+        @Override
+        public String toString() {
+            return "n=" + n + ": " + totalBytes() + " bytes (payload " + payloadBytes + ", header " + headerBytes
+                    + ", " + distinctSymbols + " distinct symbols, " + entropy + " bits/symbol)";
+        }
+    }
+
+    // Reads one sample of the file and estimates the compressed size for every n from 1 to MAX_WORD_SIZE at
+    // the same time. Small files are sampled whole, larger ones in evenly spread chunks.
+    public static Estimate[] estimate(FileChannel input, long length, int threads) throws IOException {
+        byte[] sample = sample(input, length);
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            ArrayList<ForkJoinTask<Estimate>> tasks = new ArrayList<>();
+            for (byte n=1 ; n<=MAX_WORD_SIZE ; n++) {
+                byte wordSize = n;
+                tasks.add(pool.submit(() -> estimate(sample, length, wordSize)));
+            }
+            Estimate[] estimates = new Estimate[MAX_WORD_SIZE];
+            for (int i=0 ; i<estimates.length ; i++) estimates[i] = tasks.get(i).join();
+            return estimates;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    public static byte best(Estimate[] estimates) {
+        Estimate best = estimates[0];
+        for (Estimate estimate : estimates)
+            if (estimate.totalBytes() < best.totalBytes()) best = estimate;
+        return best.n;
+    }
+
+    private static byte[] sample(FileChannel input, long length) throws IOException {
+        if (length <= SAMPLE_SIZE) {
+            byte[] sample = new byte[(int) length];
+            BlockCodec.readFully(input, ByteBuffer.wrap(sample), 0);
+            return sample;
+        }
+        int chunk = SAMPLE_SIZE / CHUNKS / ALIGNMENT * ALIGNMENT;
+        byte[] sample = new byte[chunk * CHUNKS];
+        for (int i=0 ; i<CHUNKS ; i++) {
+            long offset = Math.min(length / CHUNKS * i, length - chunk) / ALIGNMENT * ALIGNMENT;
+            BlockCodec.readFully(input, ByteBuffer.wrap(sample, i * chunk, chunk), offset);
+        }
+        return sample;
+    }
+
+    private static Estimate estimate(byte[] sample, long length, byte n) {
+        FrequencyCounter counter = new FrequencyCounter(n);
+        counter.add(sample, 0, sample.length);
+        WordFrequencies frequencies = counter.finish();
+        long sampleWords = (sample.length + n - 1) / n, fileWords = (length + n - 1) / n;
+        long distinct = frequencies.size();
+        if (sampleWords < fileWords) {
+            // Words seen once tell how often the rest of the file brings new ones (Good-Turing)
+            long singletons = 0;
+            for (int i=0 ; i<frequencies.size() ; i++) if (frequencies.count(i) == 1) singletons++;
+            distinct = Math.min(fileWords, distinct + (long) ((double) singletons / sampleWords * (fileWords - sampleWords)));
+        }
+        double entropy = (frequencies.size() > 0)? frequencies.entropy() : 0;
+        long payload = (long) Math.ceil(entropy * fileWords / 8);
+        long header = 9 + distinct * (n + 1); // n, the original length and a length byte for every word
+        return new Estimate(n, (int) sampleWords, distinct, entropy, payload, header);
+    }
+}
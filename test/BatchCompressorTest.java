@@ -0,0 +1,49 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class BatchCompressorTest {
+    @TempDir
+    Path directory;
+
+    private static BatchCompressor batch(String option) {
+        // The same setup as the bc and bd modes: canonical headers unless an option picks another
+        return new BatchCompressor(8L << 20, job -> {
+            job.setHeaderFormat(HuffmanCodeManager.HeaderFormat.CANONICAL);
+            if (option != null) job.applyOption(option);
+        });
+    }
+
+    private void assertRoundTrip(String option, byte n, byte firstByte) throws IOException {
+        byte[][] files = {TestFiles.skewed(300_001, n), TestFiles.uniform(50_000, n), new byte[0]};
+        for (int i=0 ; i<files.length ; i++) TestFiles.write(directory, "file" + i, files[i]);
+        List<BatchCompressor.FileResult> compressed = batch(option).compress(directory, n);
+        assertEquals(files.length, compressed.size());
+        for (BatchCompressor.FileResult result : compressed) {
+            assertNull(result.error);
+            assertEquals(firstByte, Files.readAllBytes(Path.of(result.output))[0]);
+        }
+        for (BatchCompressor.FileResult result : batch(option).decompress(directory)) assertNull(result.error);
+        for (BatchCompressor.FileResult result : compressed)
+            assertArrayEquals(Files.readAllBytes(result.input), TestFiles.extracted(result.output));
+    }
+
+    @Test
+    void canonicalByDefault() throws IOException {
+        assertRoundTrip(null, (byte) 2, HuffmanCodeManager.FORMAT_CANONICAL);
+    }
+
+    @Test
+    void legacyOption() throws IOException {
+        // Legacy files start with n itself
+        assertRoundTrip("legacy", (byte) 3, (byte) 3);
+    }
+}
@@ -0,0 +1,37 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class BitBufferTest {
+    @Test
+    void codesSpanningFullBuffersKeepEveryBit() {
+        // A tiny buffer overflows all the time, with runs of zeros that end exactly at or past its end
+        Random random = new Random(20010545);
+        BitBuffer buffer = new BitBuffer(3);
+        ByteArrayOutputStream written = new ByteArrayOutputStream();
+        StringBuilder expected = new StringBuilder();
+        for (int c=0 ; c<2000 ; c++) {
+            BitVector code = new BitVector();
+            int length = random.nextInt(20);
+            boolean zeros = random.nextInt(4) == 0;
+            for (int i=0 ; i<length ; i++) {
+                boolean bit = !zeros && random.nextBoolean();
+                code.append(bit);
+                expected.append(bit? '1' : '0');
+            }
+            if (buffer.hasOverflow()) written.writeBytes(buffer.getFullBuffer());
+            buffer.appendBits(code);
+        }
+        if (!buffer.isEmpty()) {
+            if (buffer.hasOverflow()) written.writeBytes(buffer.getFullBuffer());
+            written.writeBytes(buffer.getFromBuffer());
+        }
+        byte[] bytes = new byte[(expected.length() + 7) / 8];
+        for (int i=0 ; i<expected.length() ; i++)
+            if (expected.charAt(i) == '1') bytes[i / 8] |= (byte) (1 << (7 - i % 8));
+        assertArrayEquals(bytes, written.toByteArray());
+    }
+}
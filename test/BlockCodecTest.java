@@ -0,0 +1,88 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class BlockCodecTest {
+    private static final int[] THREADS = {1, 2, 4};
+    private static final int[] STREAMS = {2, 3, 4, 8, BlockCodec.MAX_STREAMS};
+
+    @TempDir
+    Path directory;
+
+    private byte[] roundTrip(byte[] data, byte n, int threads, int blockSize) throws IOException {
+        return roundTrip(data, n, threads, blockSize, 1);
+    }
+
+    private byte[] roundTrip(byte[] data, byte n, int threads, int blockSize, int streams) throws IOException {
+        // Compresses to blocks, checks the extracted file and hands back the compressed bytes
+        Path input = TestFiles.write(directory, "input", data);
+        HuffmanCodeManager manager = new HuffmanCodeManager();
+        manager.setHeaderFormat(HuffmanCodeManager.HeaderFormat.BLOCKS);
+        manager.setThreads(threads);
+        manager.setBlockSize(blockSize);
+        manager.setStreams(streams);
+        String compressed = manager.compress(input.toString(), n);
+        manager.decompress(compressed);
+        String context = threads + " threads, " + streams + " streams, n=" + n;
+        assertArrayEquals(data, TestFiles.extracted(compressed), context);
+        // A range across a block boundary, decoded from the two blocks alone
+        int offset = Math.min(blockSize - 100, data.length / 2), length = Math.min(200, data.length - offset);
+        assertArrayEquals(Arrays.copyOfRange(data, offset, offset + length), manager.decompressRange(compressed, offset, length), context);
+        return Files.readAllBytes(Path.of(compressed));
+    }
+
+    @ParameterizedTest
+    @ValueSource(bytes = {1, 2, 3})
+    void manySmallBlocks(byte n) throws IOException {
+        // 4 KB blocks give dozens of blocks and a short last one, the output must not depend on the threads
+        byte[] data = TestFiles.skewed(300_001, n);
+        byte[] single = roundTrip(data, n, 1, BlockCodec.MIN_BLOCK_SIZE);
+        for (int threads : THREADS)
+            assertArrayEquals(single, roundTrip(data, n, threads, BlockCodec.MIN_BLOCK_SIZE), threads + " threads, n=" + n);
+    }
+
+    @ParameterizedTest
+    @ValueSource(bytes = {1, 2, 3})
+    void oneBlock(byte n) throws IOException {
+        for (int threads : THREADS)
+            roundTrip(TestFiles.uniform(100_001, n), n, threads, BlockCodec.DEFAULT_BLOCK_SIZE);
+    }
+
+    @Test
+    void oneDistinctWord() throws IOException {
+        for (int threads : THREADS)
+            roundTrip(TestFiles.oneWord(50_000), (byte) 2, threads, BlockCodec.MIN_BLOCK_SIZE);
+    }
+
+    @ParameterizedTest
+    @ValueSource(bytes = {1, 2, 3})
+    void interleavedStreams(byte n) throws IOException {
+        // Every stream count decodes, and as with one stream the output must not depend on the threads
+        byte[] data = TestFiles.skewed(300_001, n);
+        for (int streams : STREAMS) {
+            byte[] single = roundTrip(data, n, 1, BlockCodec.MIN_BLOCK_SIZE, streams);
+            assertEquals(HuffmanCodeManager.FORMAT_INTERLEAVED, single[0], streams + " streams");
+            for (int threads : THREADS)
+                assertArrayEquals(single, roundTrip(data, n, threads, BlockCodec.MIN_BLOCK_SIZE, streams), threads + " threads, " + streams + " streams");
+        }
+    }
+
+    @Test
+    void interleavedShortBlocks() throws IOException {
+        // Blocks with fewer words than streams leave some streams empty
+        for (int streams : STREAMS) {
+            roundTrip(TestFiles.uniform(5, 1), (byte) 1, 2, BlockCodec.MIN_BLOCK_SIZE, streams);
+            roundTrip(TestFiles.oneWord(50_000), (byte) 2, 2, BlockCodec.MIN_BLOCK_SIZE, streams);
+            roundTrip(TestFiles.uniform(BlockCodec.MIN_BLOCK_SIZE + 7, 3), (byte) 3, 2, BlockCodec.MIN_BLOCK_SIZE, streams);
+        }
+    }
+}
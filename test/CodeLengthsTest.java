@@ -0,0 +1,129 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class CodeLengthsTest {
+    private static final long MAX_COUNT = 1L << 34; // Past what an int frequency could hold
+
+    private static long[] randomCounts(Random random, int size) {
+        // Either counts spread evenly up to MAX_COUNT or counts spread over every order of magnitude
+        long[] counts = new long[size];
+        boolean magnitudes = random.nextBoolean();
+        for (int i=0 ; i<size ; i++)
+            counts[i] = magnitudes? 1 + (random.nextLong(MAX_COUNT) >>> random.nextInt(35)) : 1 + random.nextLong(MAX_COUNT);
+        return counts;
+    }
+
+    private static long[] fibonacciCounts(int size) {
+        // The deepest tree for its size, every merge takes the last one and the next leaf
+        long[] counts = new long[size];
+        for (int i=0 ; i<size ; i++) counts[i] = (i < 2)? 1 : counts[i-1] + counts[i-2];
+        return counts;
+    }
+
+    private static long referenceCost(long[] counts) {
+        // Total bits of an optimal code: the sum of every merge a priority queue makes
+        PriorityQueue<Long> queue = new PriorityQueue<>();
+        for (long count : counts) queue.add(count);
+        long cost = 0;
+        while (queue.size() > 1) {
+            long merged = queue.poll() + queue.poll();
+            cost += merged;
+            queue.add(merged);
+        }
+        return cost;
+    }
+
+    private static long cost(long[] counts, int[] lengths) {
+        long cost = 0;
+        for (int i=0 ; i<counts.length ; i++) cost += counts[i] * lengths[i];
+        return cost;
+    }
+
+    private static int[] lengthCounts(int[] lengths, int size) {
+        int[] lengthCounts = new int[size];
+        for (int length : lengths) lengthCounts[length]++;
+        return lengthCounts;
+    }
+
+    private static void assertComplete(int[] lengthCounts) {
+        // Kraft sum of exactly one, counted in units of the deepest level
+        int deepest = lengthCounts.length - 1;
+        while (deepest > 0 && lengthCounts[deepest] == 0) deepest--;
+        assertTrue(deepest < 63, "deepest code " + deepest);
+        long sum = 0;
+        for (int length=1 ; length<=deepest ; length++) sum += (long) lengthCounts[length] << (deepest - length);
+        assertEquals(1L << deepest, sum, "Kraft sum");
+    }
+
+    @Test
+    void randomDistributions() {
+        Random random = new Random(18);
+        for (int run=0 ; run<1000 ; run++) {
+            int size = 2 + random.nextInt((run % 10 == 0)? 5000 : 300);
+            long[] counts = randomCounts(random, size);
+            int[] lengths = CodeLengths.huffman(counts, size);
+            assertEquals(referenceCost(counts), cost(counts, lengths), "run " + run);
+            assertComplete(lengthCounts(lengths, size));
+        }
+    }
+
+    @Test
+    void fibonacciDepths() {
+        long[] counts = fibonacciCounts(40);
+        int[] lengths = CodeLengths.huffman(counts, counts.length);
+        assertEquals(referenceCost(counts), cost(counts, lengths));
+        assertEquals(39, lengths[0]);
+        assertEquals(1, lengths[counts.length - 1]);
+        assertComplete(lengthCounts(lengths, counts.length));
+    }
+
+    @Test
+    void onlyTheFirstSizeCounts() {
+        long[] counts = {5, 1, 1, MAX_COUNT, MAX_COUNT};
+        assertArrayEquals(new int[] {1, 2, 2}, CodeLengths.huffman(counts, 3));
+        assertArrayEquals(new int[] {0}, CodeLengths.huffman(counts, 1));
+        assertArrayEquals(new int[0], CodeLengths.huffman(counts, 0));
+    }
+
+    @Test
+    void equalCountsGiveABalancedCode() {
+        long[] counts = new long[256];
+        Arrays.fill(counts, MAX_COUNT);
+        for (int length : CodeLengths.huffman(counts, counts.length)) assertEquals(8, length);
+    }
+
+    @Test
+    void limitedLengthsStayComplete() {
+        // Every limit from the deepest code down to the fewest bits that still give each symbol a code
+        Random random = new Random(34);
+        for (int run=0 ; run<200 ; run++) {
+            int size = 2 + random.nextInt(1000);
+            long[] counts = (run % 4 == 0)? fibonacciCounts(Math.min(size, 60)) : randomCounts(random, size);
+            int[] lengths = CodeLengths.huffman(counts, counts.length);
+            int[] unlimited = lengthCounts(lengths, counts.length);
+            int deepest = unlimited.length - 1;
+            while (unlimited[deepest] == 0) deepest--;
+            int shortest = 64 - Long.numberOfLeadingZeros(counts.length - 1);
+            for (int maxLength=deepest ; maxLength>=shortest ; maxLength--) {
+                int[] limited = unlimited.clone();
+                CodeTable.limitLengthCounts(limited, maxLength);
+                int symbols = 0;
+                for (int length=0 ; length<limited.length ; length++) {
+                    if (length > maxLength) assertEquals(0, limited[length], "run " + run + ", limit " + maxLength);
+                    assertTrue(limited[length] >= 0);
+                    symbols += limited[length];
+                }
+                assertEquals(counts.length, symbols);
+                assertEquals(0, limited[0]);
+                assertComplete(limited);
+            }
+        }
+    }
+}
@@ -0,0 +1,71 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.junit.jupiter.api.Test;
+
+class CodeTableTest {
+    private static byte[] header(int maxLength, byte[] counts, String words) {
+        // Counts below 128 take one varint byte each
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(maxLength);
+        out.writeBytes(counts);
+        out.writeBytes(words.getBytes());
+        return out.toByteArray();
+    }
+
+    private static CodeTable read(byte[] header, byte n) throws IOException {
+        return CodeTable.readCanonical(new ByteArrayInputStream(header), n, 1);
+    }
+
+    @Test
+    void canonicalHeaderRoundTrip() throws IOException {
+        byte[] header = header(3, new byte[] {1, 1, 2}, "abcd");
+        CodeTable table = read(header, (byte) 1);
+        assertEquals(4, table.size());
+        assertArrayEquals(new long[] {0b0, 0b10, 0b110, 0b111}, java.util.Arrays.copyOf(table.codes, 4));
+        ByteArrayOutputStream written = new ByteArrayOutputStream();
+        table.writeCanonical(written);
+        assertArrayEquals(header, written.toByteArray());
+    }
+
+    @Test
+    void countsTakeOneByteWhenSmall() throws IOException {
+        // 24 lengths, a byte each, instead of four bytes each
+        byte[] counts = new byte[24];
+        counts[0] = 1;
+        for (int i=1 ; i<23 ; i++) counts[i] = 1;
+        counts[23] = 2;
+        byte[] header = header(24, counts, "abcdefghijklmnopqrstuvwxy");
+        ByteArrayOutputStream written = new ByteArrayOutputStream();
+        read(header, (byte) 1).writeCanonical(written);
+        assertEquals(1 + 24 + 25, written.size());
+    }
+
+    @Test
+    void rejectsMoreCodesThanTheLengthAllows() {
+        assertThrows(IOException.class, () -> read(header(2, new byte[] {1, 3}, "abcd"), (byte) 1));
+    }
+
+    @Test
+    void rejectsCodeLengthsThatLeaveCodesUnused() {
+        assertThrows(IOException.class, () -> read(header(2, new byte[] {1, 1}, "ab"), (byte) 1));
+    }
+
+    @Test
+    void rejectsMoreSymbolsThanWordsOfTheSize() {
+        // 300 codes of length 9 fit the code space, but there are only 256 one-byte words and a short one
+        byte[] counts = {0, 0, 0, 0, 0, 0, 0, 0, (byte) 0xAC, 0x02};
+        assertThrows(IOException.class, () -> read(header(9, counts, ""), (byte) 1));
+    }
+
+    @Test
+    void rejectsCountsPastAnInt() {
+        byte[] counts = {(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x7F};
+        assertThrows(IOException.class, () -> read(header(1, counts, ""), (byte) 1));
+    }
+}
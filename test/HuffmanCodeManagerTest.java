@@ -0,0 +1,80 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class HuffmanCodeManagerTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void streamFormatRoundTripSucceeds() throws IOException {
+        byte[] data = TestFiles.skewed(3 * HuffmanOutputStream.DEFAULT_FRAME_SIZE + 17, 2);
+        Path compressed = directory.resolve("sample.hc");
+        try (OutputStream out = new HuffmanOutputStream(Files.newOutputStream(compressed), (byte) 2)) {
+            out.write(data);
+        }
+        HuffmanCodeManager manager = new HuffmanCodeManager();
+        manager.decompress(compressed.toString());
+        // Both sizes are only set once the job got through without an exception
+        CompressionMetrics metrics = manager.getMetrics();
+        assertNull(metrics.error());
+        assertEquals(Files.size(compressed), metrics.bytesRead());
+        assertEquals(data.length, metrics.bytesWritten());
+        assertArrayEquals(data, TestFiles.extracted(compressed.toString()));
+    }
+
+    @Test
+    void streamBuffersFollowTheFrameSize() throws IOException {
+        // 64 KB frames are charged as 64 KB frames, not as the default size
+        byte[] data = TestFiles.skewed(200_000, 1);
+        Path compressed = directory.resolve("small.hc");
+        try (OutputStream out = new HuffmanOutputStream(Files.newOutputStream(compressed), (byte) 1, 1 << 16,
+                HuffmanCodeManager.DEFAULT_MAX_CODE_LENGTH)) {
+            out.write(data);
+        }
+        HuffmanCodeManager manager = new HuffmanCodeManager();
+        manager.decompress(compressed.toString());
+        assertEquals(2 << 16, manager.getMetrics().peakBufferBytes());
+        assertArrayEquals(data, TestFiles.extracted(compressed.toString()));
+    }
+
+    @Test
+    void failuresGoToTheConsoleAndTheListener() {
+        // A missing input is reported once on the console and handed to the listener, nothing goes to stderr
+        ByteArrayOutputStream console = new ByteArrayOutputStream(), errors = new ByteArrayOutputStream();
+        Throwable[] failed = new Throwable[1];
+        HuffmanCodeManager manager = new HuffmanCodeManager();
+        manager.setConsole(new PrintStream(console, true));
+        manager.setListener(new CompressionListener() {
+            @Override
+            public void failed(Throwable e) {
+                failed[0] = e;
+            }
+        });
+        PrintStream stderr = System.err;
+        System.setErr(new PrintStream(errors, true));
+        try {
+            manager.decompress(directory.resolve("missing.hc").toString());
+        } finally {
+            System.setErr(stderr);
+        }
+        assertInstanceOf(FileNotFoundException.class, manager.getMetrics().error());
+        assertSame(manager.getMetrics().error(), failed[0]);
+        assertTrue(console.toString().startsWith("Error while decompressing the file: "), console.toString());
+        assertEquals("", errors.toString());
+    }
+}
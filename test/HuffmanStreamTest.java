@@ -0,0 +1,67 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class HuffmanStreamTest {
+    private static byte[] compress(byte[] data, byte n, int frameSize) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (OutputStream out = new HuffmanOutputStream(compressed, n, frameSize, HuffmanCodeManager.DEFAULT_MAX_CODE_LENGTH)) {
+            out.write(data);
+        }
+        return compressed.toByteArray();
+    }
+
+    private static byte[] decompress(byte[] compressed) throws IOException {
+        try (InputStream in = new HuffmanInputStream(new ByteArrayInputStream(compressed))) {
+            return in.readAllBytes();
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(bytes = {1, 2, 3})
+    void roundTrip(byte n) throws IOException {
+        // 64 KB frames and a short last word
+        byte[] data = TestFiles.skewed(300_001, n);
+        assertArrayEquals(data, decompress(compress(data, n, 1 << 16)));
+    }
+
+    @Test
+    void rejectsFramesLargerThanTheHeaderAllows() throws IOException {
+        ByteArrayOutputStream corrupt = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(corrupt);
+        out.writeByte(HuffmanCodeManager.FORMAT_STREAM);
+        out.writeByte(1);
+        out.writeInt(1 << 16);
+        out.writeInt(Integer.MAX_VALUE); // Frame length
+        out.writeInt(1);
+        assertThrows(IOException.class, () -> decompress(corrupt.toByteArray()));
+    }
+
+    @Test
+    void rejectsFrameSizesPastTheMaximum() {
+        byte[] header = {HuffmanCodeManager.FORMAT_STREAM, 1, 0x7F, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF};
+        assertThrows(IOException.class, () -> decompress(header));
+    }
+
+    @Test
+    void rejectsPayloadsLongerThanTheLongestCodes() throws IOException {
+        // One frame of one word: the table gives it an empty code, so there can't be any payload
+        byte[] valid = compress(new byte[] {'a'}, (byte) 1, 1 << 16);
+        // Claim one payload byte and put it after the table (marker, n, frame size, lengths, max length, 'a')
+        byte[] compressed = new byte[valid.length + 1];
+        System.arraycopy(valid, 0, compressed, 0, 16);
+        System.arraycopy(valid, 16, compressed, 17, valid.length - 16);
+        compressed[13] = 1;
+        assertThrows(IOException.class, () -> decompress(compressed));
+    }
+}
@@ -0,0 +1,90 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class RangeReadTest {
+    private static final int LENGTH = 200_003;
+
+    @TempDir
+    Path directory;
+
+    private String compress(byte[] data, byte n, HuffmanCodeManager.HeaderFormat format, long syncInterval) throws IOException {
+        HuffmanCodeManager manager = new HuffmanCodeManager();
+        manager.setHeaderFormat(format);
+        manager.setSyncInterval(syncInterval);
+        if (format == HuffmanCodeManager.HeaderFormat.BLOCKS) manager.setBlockSize(BlockCodec.MIN_BLOCK_SIZE);
+        return manager.compress(TestFiles.write(directory, "input", data).toString(), n);
+    }
+
+    private static void assertRanges(byte[] data, String compressed) throws IOException {
+        // Ranges at both ends, on and around sync points, and at random
+        HuffmanCodeManager manager = new HuffmanCodeManager();
+        Random random = new Random(20010545);
+        long[][] ranges = {{0, 0}, {0, 1}, {0, 4096}, {4095, 2}, {4096, 4096}, {8191, 1}, {LENGTH - 1, 1},
+                {LENGTH - 5000, 5000}, {0, LENGTH}, {LENGTH, 0}};
+        for (long[] range : ranges)
+            assertRange(data, manager, compressed, range[0], (int) range[1]);
+        for (int i=0 ; i<50 ; i++) {
+            int offset = random.nextInt(LENGTH), length = random.nextInt(Math.min(LENGTH - offset, 20_000) + 1);
+            assertRange(data, manager, compressed, offset, length);
+        }
+    }
+
+    private static void assertRange(byte[] data, HuffmanCodeManager manager, String compressed, long offset, int length)
+            throws IOException {
+        byte[] expected = Arrays.copyOfRange(data, (int) offset, (int) offset + length);
+        assertArrayEquals(expected, manager.decompressRange(compressed, offset, length), offset + "+" + length);
+    }
+
+    @ParameterizedTest
+    @ValueSource(bytes = {1, 2, 3})
+    void syncPointsInEveryFormat(byte n) throws IOException {
+        byte[] data = TestFiles.skewed(LENGTH, n);
+        for (HuffmanCodeManager.HeaderFormat format : HuffmanCodeManager.HeaderFormat.values()) {
+            String compressed = compress(data, n, format, 4096);
+            assertRanges(data, compressed);
+        }
+    }
+
+    @ParameterizedTest
+    @EnumSource(HuffmanCodeManager.HeaderFormat.class)
+    void withoutAnIndex(HuffmanCodeManager.HeaderFormat format) throws IOException {
+        // Decoding starts right after the table, whose length has to be worked out from the table itself
+        byte[] data = TestFiles.uniform(LENGTH, 2);
+        String compressed = compress(data, (byte) 2, format, 0);
+        assertRanges(data, compressed);
+    }
+
+    @Test
+    void syncIndexMatchesTheInterval() throws IOException {
+        // Intervals are rounded down to whole words, n=3 turns 4096 into 4095
+        byte[] data = TestFiles.skewed(LENGTH, 3);
+        String compressed = compress(data, (byte) 3, HuffmanCodeManager.HeaderFormat.CANONICAL, 4096);
+        SyncIndex index = SyncIndex.read(compressed + SyncIndex.EXTENSION);
+        assertEquals(4095, index.interval);
+        assertEquals((LENGTH + 4094) / 4095, index.size);
+        for (int i=0 ; i<index.size ; i++) assertEquals(4095L * i, index.originalOffsets[i]);
+        assertTrue(new File(compressed).length() * 8 > index.bitOffsets[index.size - 1]);
+    }
+
+    @Test
+    void rejectsRangesOutsideTheFile() throws IOException {
+        String compressed = compress(TestFiles.skewed(1000, 1), (byte) 1, HuffmanCodeManager.HeaderFormat.CANONICAL, 0);
+        HuffmanCodeManager manager = new HuffmanCodeManager();
+        assertThrows(IndexOutOfBoundsException.class, () -> manager.decompressRange(compressed, 999, 2));
+        assertThrows(IndexOutOfBoundsException.class, () -> manager.decompressRange(compressed, -1, 1));
+    }
+}
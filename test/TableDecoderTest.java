@@ -0,0 +1,53 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class TableDecoderTest {
+    @TempDir
+    Path directory;
+
+    private void assertBothDecoders(byte[] data, byte n) throws IOException {
+        // The same legacy file through the tree walker and the lookup tables
+        Path input = TestFiles.write(directory, "input", data);
+        String compressed = new HuffmanCodeManager().compress(input.toString(), n);
+        for (HuffmanCodeManager.DecoderType type : HuffmanCodeManager.DecoderType.values()) {
+            HuffmanCodeManager manager = new HuffmanCodeManager();
+            manager.setDecoderType(type);
+            manager.decompress(compressed);
+            assertArrayEquals(data, TestFiles.extracted(compressed), type + " decoder, n=" + n);
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(bytes = {1, 2, 3})
+    void skewedText(byte n) throws IOException {
+        // 200003 leaves a short last word for n=2 and n=3
+        assertBothDecoders(TestFiles.skewed(200_003, n), n);
+    }
+
+    @ParameterizedTest
+    @ValueSource(bytes = {1, 2, 3})
+    void uniformBytes(byte n) throws IOException {
+        // Many distinct words, so codes go past the primary table into the linked ones
+        assertBothDecoders(TestFiles.uniform(150_001, n), n);
+    }
+
+    @ParameterizedTest
+    @ValueSource(bytes = {1, 2})
+    void oneDistinctWord(byte n) throws IOException {
+        // The only code is empty, there is no payload to decode
+        assertBothDecoders(TestFiles.oneWord(1001), n);
+    }
+
+    @ParameterizedTest
+    @ValueSource(bytes = {1, 3})
+    void emptyFile(byte n) throws IOException {
+        // No words, so the header ends after the original length
+        assertBothDecoders(new byte[0], n);
+    }
+}
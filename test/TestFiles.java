@@ -0,0 +1,41 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+final class TestFiles {
+    private TestFiles() {
+    }
+
+    static byte[] skewed(int length, long seed) {
+        // Letters with a Gaussian spread, a few very common words and a long tail of rare ones
+        byte[] data = new byte[length];
+        Random random = new Random(seed);
+        for (int i=0 ; i<length ; i++) data[i] = (byte) ('a' + Math.min((int) Math.abs(random.nextGaussian() * 6), 25));
+        return data;
+    }
+
+    static byte[] uniform(int length, long seed) {
+        byte[] data = new byte[length];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+
+    static byte[] oneWord(int length) {
+        byte[] data = new byte[length];
+        Arrays.fill(data, (byte) 'a');
+        return data;
+    }
+
+    static Path write(Path directory, String name, byte[] data) throws IOException {
+        return Files.write(directory.resolve(name), data);
+    }
+
+    static byte[] extracted(String compressed) throws IOException {
+        // decompress writes extracted.<name without .hc> next to the compressed file
+        Path path = Path.of(compressed);
+        String name = path.getFileName().toString();
+        return Files.readAllBytes(path.resolveSibling("extracted." + name.substring(0, name.length() - 3)));
+    }
+}